@@ -0,0 +1,60 @@
+package no.busstuc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static no.busstuc.GTFS_ToBussTUC.*;
+
+/**
+ * The builders of the predicate files, each on the tables read once in {@link FeedState}.
+ * Every call gets a new symbol table, as every conversion does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuilderBenchmark {
+    @Benchmark
+    public Pair<ArrayList<String>, HashMap<String, String>> regdko(FeedState state) {
+        return make_regdko_list(state.calendar, state.calendar_dates, state.starting_date, new FeedSymbols());
+    }
+
+    @Benchmark
+    public ArrayList<String> regbus(FeedState state) {
+        return make_regbus_list(state.trips, new FeedSymbols());
+    }
+
+    /**
+     * make_regcomp_and_hpl_list, which calls setHpl for every quay
+     */
+    @Benchmark
+    public Triple<ArrayList<String>, ArrayList<String>, HashMap<Integer, String>> regcomp_and_hpl(FeedState state) {
+        return make_regcomp_and_hpl_list(state.stops, new FeedSymbols());
+    }
+
+    /**
+     * Sorting the segments and joining every trip to its segment and departure, the regdep lines are sorted here too.
+     * The trip handles come from the symbol table the segments were made with.
+     */
+    @Benchmark
+    public Pair<PredicateWriter.Content, PredicateWriter.Content> regpas_and_dep(FeedState state) {
+        return make_regpas_and_dep_list(state.pas_segments, state.trips, state.dko.getRight(), state.comp.getRight(), false, state.ids);
+    }
+
+    @Benchmark
+    public Pair<PredicateWriter.Content, PredicateWriter.Content> regpas_and_dep_legacy_order(FeedState state) {
+        return make_regpas_and_dep_list(state.pas_segments, state.trips, state.dko.getRight(), state.comp.getRight(), true, state.ids);
+    }
+}
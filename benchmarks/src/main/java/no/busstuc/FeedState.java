@@ -0,0 +1,82 @@
+package no.busstuc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import static no.busstuc.GTFS_ToBussTUC.*;
+
+/**
+ * A feed of the given number of stop_times rows from {@link GtfsFeedGenerator}, written to a temporary folder once per trial,
+ * and the result of every phase, so each benchmark starts from the inputs its phase gets in a conversion
+ */
+@State(Scope.Benchmark)
+public class FeedState {
+    @Param({"10000", "100000", "1000000"})
+    public int stop_times;
+
+    public Path dir;
+    public GtfsFeed feed;
+    public GtfsTable calendar;
+    public GtfsTable calendar_dates;
+    public GtfsTable trips;
+    public GtfsTable stops;
+    public LocalDate starting_date;
+    public Pair<ArrayList<String>, HashMap<String, String>> dko;
+    public Triple<ArrayList<String>, ArrayList<String>, HashMap<Integer, String>> comp;
+    public Pair<ArrayList<PasSegment>, TripIndex> pas_segments;
+    public Pair<PredicateWriter.Content, PredicateWriter.Content> pas_and_dep;
+    public FeedSymbols ids;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("gtfs-benchmark");
+        var generator = new GtfsFeedGenerator();
+        generator.setSeed(42);
+        generator.setStops(Math.max(100, stop_times / 500));
+        generator.setStop_times(stop_times);
+        generator.write(dir);
+        feed = GtfsFeed.open(dir.toString());
+        calendar = read_table("calendar.txt", CALENDAR_COLUMNS);
+        calendar_dates = read_table("calendar_dates.txt", CALENDAR_DATES_COLUMNS);
+        trips = read_table("trips.txt", TRIPS_COLUMNS);
+        stops = read_table("stops.txt", STOPS_COLUMNS);
+        ids = new FeedSymbols();
+        starting_date = get_validity(calendar).getLeft();
+        dko = make_regdko_list(calendar, calendar_dates, starting_date, ids);
+        comp = make_regcomp_and_hpl_list(stops, ids);
+        try (var reader = feed.csv_reader("stop_times.txt", STOP_TIMES_COLUMNS)) {
+            pas_segments = make_pas_segments(reader, ids);
+        }
+        pas_and_dep = make_regpas_and_dep_list(pas_segments, trips, dko.getRight(), comp.getRight(), false, ids);
+    }
+
+    @TearDown(Level.Trial)
+    public void tear_down() throws IOException {
+        feed.close();
+        try (var files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    GtfsTable read_table(String name, String... columns) throws IOException {
+        try (var reader = feed.csv_reader(name, columns)) {
+            return GtfsTable.read(reader, columns);
+        }
+    }
+}
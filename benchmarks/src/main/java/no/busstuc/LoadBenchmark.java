@@ -0,0 +1,51 @@
+package no.busstuc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static no.busstuc.GTFS_ToBussTUC.*;
+
+/**
+ * Reading the GTFS files into the tables the builders take, and streaming stop_times.txt into segments
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+    @Benchmark
+    public GtfsTable read_calendar(FeedState state) throws IOException {
+        return state.read_table("calendar.txt", CALENDAR_COLUMNS);
+    }
+
+    @Benchmark
+    public GtfsTable read_trips(FeedState state) throws IOException {
+        return state.read_table("trips.txt", TRIPS_COLUMNS);
+    }
+
+    @Benchmark
+    public GtfsTable read_stops(FeedState state) throws IOException {
+        return state.read_table("stops.txt", STOPS_COLUMNS);
+    }
+
+    /**
+     * Reading stop_times.txt, building the trip patterns and dropping the duplicates, in one pass as in a conversion
+     */
+    @Benchmark
+    public Pair<ArrayList<PasSegment>, TripIndex> read_stop_times(FeedState state) throws IOException {
+        try (var reader = state.feed.csv_reader("stop_times.txt", STOP_TIMES_COLUMNS)) {
+            return make_pas_segments(reader, new FeedSymbols());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package no.busstuc;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing the predicate files, the part of a conversion that used to be predicate_printer.
+ * regpas.pl and regdep.pl are the large ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriterBenchmark {
+    @Benchmark
+    public long write_regpas(FeedState state) throws IOException {
+        return PredicateWriter.write(state.dir.resolve("regpas.pl").toString(), state.pas_and_dep.getLeft());
+    }
+
+    @Benchmark
+    public long write_regdep(FeedState state) throws IOException {
+        return PredicateWriter.write(state.dir.resolve("regdep.pl").toString(), state.pas_and_dep.getRight());
+    }
+
+    @Benchmark
+    public long write_regdko(FeedState state) throws IOException {
+        return PredicateWriter.write(state.dir.resolve("regdko.pl").toString(), PredicateWriter.Content.of(state.dko.getLeft()));
+    }
+}
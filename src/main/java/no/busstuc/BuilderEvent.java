@@ -0,0 +1,50 @@
+package no.busstuc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of one run of a builder, such as make_regdko_list, with the rows it took in and gave out
+ */
+@Name("no.busstuc.Builder")
+@Label("Builder")
+@Category({"BussTUC", "Conversion"})
+@Description("A builder making predicates or segments from GTFS rows")
+class BuilderEvent extends Event {
+    @Label("Builder")
+    String builder;
+
+    @Label("Rows In")
+    @Description("GTFS rows, segments or trips the builder took in")
+    long rows_in;
+
+    @Label("Rows Out")
+    @Description("Predicates, segments or departures the builder gave out")
+    long rows_out;
+
+    /**
+     * @param builder name of the builder method
+     * @return the event, begun
+     */
+    static BuilderEvent begin(String builder) {
+        var event = new BuilderEvent();
+        event.builder = builder;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it if it is recorded
+     */
+    void finish(long rows_in, long rows_out) {
+        end();
+        if (shouldCommit()) {
+            this.rows_in = rows_in;
+            this.rows_out = rows_out;
+            commit();
+        }
+    }
+}
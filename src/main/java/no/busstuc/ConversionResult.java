@@ -0,0 +1,118 @@
+package no.busstuc;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a {@link GtfsConverter} made: the route folder and the period its routes are valid for,
+ * or what went wrong if the conversion failed
+ */
+public class ConversionResult {
+    private final ConverterConfig config;
+    private final File out_dir;
+    private final LocalDate starting_date;
+    private final LocalDate ending_date;
+    private final long elapsed_msec;
+    private final List<PhaseMetrics> phases;
+    private final List<String> changed_files;
+    private final Throwable failure;
+
+    public ConversionResult(ConverterConfig config, File out_dir, LocalDate starting_date, LocalDate ending_date, long elapsed_msec, List<PhaseMetrics> phases, List<String> changed_files) {
+        this(config, out_dir, starting_date, ending_date, elapsed_msec, phases, changed_files, null);
+    }
+
+    private ConversionResult(ConverterConfig config, File out_dir, LocalDate starting_date, LocalDate ending_date, long elapsed_msec, List<PhaseMetrics> phases, List<String> changed_files, Throwable failure) {
+        this.config = config;
+        this.out_dir = out_dir;
+        this.starting_date = starting_date;
+        this.ending_date = ending_date;
+        this.elapsed_msec = elapsed_msec;
+        this.phases = phases;
+        this.changed_files = changed_files;
+        this.failure = failure;
+    }
+
+    /**
+     * @param config       config of the conversion that failed
+     * @param failure      why it failed
+     * @param elapsed_msec time until it failed
+     * @return a result without route folder or period
+     */
+    public static ConversionResult failed(ConverterConfig config, Throwable failure, long elapsed_msec) {
+        return new ConversionResult(config, null, null, null, elapsed_msec, Collections.emptyList(), Collections.emptyList(), failure);
+    }
+
+    public ConverterConfig getConfig() {
+        return config;
+    }
+
+    public String getAdm_code() {
+        return config.getAdm_code();
+    }
+
+    /**
+     * @return the route folder the predicate files were written to
+     */
+    public File getOut_dir() {
+        return out_dir;
+    }
+
+    /**
+     * @return the first Monday of the period, also the first day of every day mask in regdko.pl
+     */
+    public LocalDate getStarting_date() {
+        return starting_date;
+    }
+
+    public LocalDate getEnding_date() {
+        return ending_date;
+    }
+
+    /**
+     * @return time from the start of the conversion until the files were written and, if the config asks for it,
+     * route_period.pl and version.pl were updated, or until it failed
+     */
+    public long getElapsed_msec() {
+        return elapsed_msec;
+    }
+
+    /**
+     * @return run time of each phase in msec, in the order the phases were added
+     */
+    public Map<String, Long> getPhase_msec() {
+        var phase_msec = new LinkedHashMap<String, Long>();
+        for (PhaseMetrics phase : phases) {
+            phase_msec.put(phase.getName(), phase.getWall_nanos() / 1_000_000);
+        }
+        return phase_msec;
+    }
+
+    /**
+     * @return what each phase cost and counted, in the order the phases were added
+     */
+    public List<PhaseMetrics> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @return names of the predicate files that were replaced because their content changed
+     */
+    public List<String> getChanged_files() {
+        return changed_files;
+    }
+
+    /**
+     * @return why the conversion failed, null if it did not
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+}
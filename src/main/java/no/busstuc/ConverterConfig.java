@@ -0,0 +1,113 @@
+package no.busstuc;
+
+/**
+ * What one {@link GtfsConverter} converts and where the result goes
+ */
+public class ConverterConfig {
+    // Memory used to sort stop_times.txt when it is not grouped by trip
+    public static final long DEFAULT_SORT_MEMORY = 64L << 20;
+
+    private final String data_path;
+    private final String out_folder;
+    private String adm_code = "r160";
+    private boolean legacy_order = false;
+    private boolean update_route_period = true;
+    private boolean incremental = true;
+    private String snapshot_dir = null;
+    private long sort_memory = DEFAULT_SORT_MEMORY;
+    private String sort_dir = System.getProperty("java.io.tmpdir");
+
+    /**
+     * @param data_path  folder with the GTFS files to convert
+     * @param out_folder folder the route folder is created in, may be absolute or relative
+     */
+    public ConverterConfig(String data_path, String out_folder) {
+        this.data_path = data_path;
+        this.out_folder = out_folder;
+    }
+
+    public String getData_path() {
+        return data_path;
+    }
+
+    public String getOut_folder() {
+        return out_folder;
+    }
+
+    /**
+     * @return the code of the route module, used in the name of the route folder
+     */
+    public String getAdm_code() {
+        return adm_code;
+    }
+
+    public void setAdm_code(String adm_code) {
+        this.adm_code = adm_code;
+    }
+
+    /**
+     * @return true if regpas.pl and regdep.pl are sorted as text, like earlier versions did
+     */
+    public boolean isLegacy_order() {
+        return legacy_order;
+    }
+
+    public void setLegacy_order(boolean legacy_order) {
+        this.legacy_order = legacy_order;
+    }
+
+    /**
+     * @return true if route_period.pl and version.pl are updated after the files are written
+     */
+    public boolean isUpdate_route_period() {
+        return update_route_period;
+    }
+
+    public void setUpdate_route_period(boolean update_route_period) {
+        this.update_route_period = update_route_period;
+    }
+
+    /**
+     * @return true if only the files whose GTFS files changed since the manifest was written are made again
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return folder the parsed GTFS files are kept in between runs, null to always parse them
+     */
+    public String getSnapshot_dir() {
+        return snapshot_dir;
+    }
+
+    public void setSnapshot_dir(String snapshot_dir) {
+        this.snapshot_dir = snapshot_dir;
+    }
+
+    /**
+     * @return bytes of rows kept in memory when stop_times.txt has to be sorted, more rows are spilled to disk
+     */
+    public long getSort_memory() {
+        return sort_memory;
+    }
+
+    public void setSort_memory(long sort_memory) {
+        this.sort_memory = sort_memory;
+    }
+
+    /**
+     * @return folder the rows of stop_times.txt are spilled to while it is sorted, the temporary folder of the JVM by default
+     */
+    public String getSort_dir() {
+        return sort_dir;
+    }
+
+    public void setSort_dir(String sort_dir) {
+        this.sort_dir = sort_dir;
+    }
+}
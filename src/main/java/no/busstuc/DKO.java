@@ -13,14 +13,14 @@ public class DKO {
     private String week3;
     private String week4;
 
-    private String days;
+    private DayMask days;
 
     private String old_day_code;
 
     // Default constructor without given values
     public DKO(){}
 
-    public DKO(String day_code, LocalDate from, LocalDate to, String weeks, String days) {
+    public DKO(String day_code, LocalDate from, LocalDate to, String weeks, DayMask days) {
         this.day_code = day_code;
         this.from = from;
         this.to = to;
@@ -87,11 +87,11 @@ public class DKO {
         this.week4 = week4;
     }
 
-    public String getDays() {
+    public DayMask getDays() {
         return days;
     }
 
-    public void setDays(String days) {
+    public void setDays(DayMask days) {
         this.days = days;
     }
 
@@ -0,0 +1,66 @@
+package no.busstuc;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The days a DKO is valid, counted from the dkodate, one bit per day.
+ * Printed in regdko.pl as a string of '0' and '1' with one character per day.
+ */
+public class DayMask {
+    private final long[] words;
+    private final int length;
+
+    /**
+     * @param length number of days in the mask, all days start out as not valid
+     */
+    public DayMask(int length) {
+        this.words = new long[(length + 63) >>> 6];
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean get(int day) {
+        Objects.checkIndex(day, length);
+        return (words[day >>> 6] & (1L << day)) != 0;
+    }
+
+    /**
+     * @param day   the day from the start of the mask
+     * @param valid whether the day is valid
+     */
+    public void set(int day, boolean valid) {
+        Objects.checkIndex(day, length);
+        if (valid) {
+            words[day >>> 6] |= 1L << day;
+        } else {
+            words[day >>> 6] &= ~(1L << day);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof DayMask) {
+            var other = (DayMask) obj;
+            return this.length == other.length && Arrays.equals(this.words, other.words);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(words) + length;
+    }
+
+    @Override
+    public String toString() {
+        var chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (words[i >>> 6] & (1L << i)) != 0 ? '1' : '0';
+        }
+        return String.valueOf(chars);
+    }
+}
@@ -0,0 +1,113 @@
+package no.busstuc;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * One departureday fact of regdep.pl, kept as its parts until it is written
+ */
+public class DepartureDay {
+    /**
+     * Orders by route (line, then trip hash), seg_id, departure time and day code, comparing numbers as numbers.
+     * Lines that are not plain numbers come first, ordered as text.
+     */
+    public static final Comparator<DepartureDay> BY_KEY = (a, b) -> {
+        var compare = Integer.compare(a.line_number, b.line_number);
+        if (compare == 0 && a.line_number == -1)
+            compare = a.line.compareTo(b.line);
+        if (compare == 0)
+            compare = Integer.compare(a.trip_hash, b.trip_hash);
+        if (compare == 0)
+            compare = Integer.compare(a.seg_id, b.seg_id);
+        if (compare == 0)
+            compare = Integer.compare(a.dep_time, b.dep_time);
+        if (compare == 0)
+            compare = a.day_code.compareTo(b.day_code);
+        return compare;
+    };
+
+    private final String line;
+    // the line as a number, or -1 when it is not a number
+    private final int line_number;
+    private final int trip_hash;
+    private final int seg_id;
+    private final int dep_time;
+    private final String day_code;
+
+    /**
+     * @param line      line number from the trip_id
+     * @param trip_hash the positive hash of the trip_id that names the route
+     * @param seg_id    segment of the trip
+     * @param dep_time  departure from the first stop as HHMM
+     * @param day_code  day code of the trip after merging equal DKOs
+     */
+    public DepartureDay(String line, int trip_hash, int seg_id, int dep_time, String day_code) {
+        this.line = line;
+        this.line_number = parse_line(line);
+        this.trip_hash = trip_hash;
+        this.seg_id = seg_id;
+        this.dep_time = dep_time;
+        this.day_code = day_code;
+    }
+
+    public int getSeg_id() {
+        return seg_id;
+    }
+
+    public int getDep_time() {
+        return dep_time;
+    }
+
+    public String getDay_code() {
+        return day_code;
+    }
+
+    /**
+     * Writes the fact as a line of regdep.pl
+     */
+    public void write_to(PredicateWriter out) throws IOException {
+        out.append("departureday( bus_").append(line).append("_").append(trip_hash).append(", ").append(seg_id)
+                .append(", ").append(dep_time).append(", ").append(day_code).append(").").end_line();
+    }
+
+    /**
+     * @return the line as a number, -1 if it is not written as a plain number
+     */
+    private static int parse_line(String line) {
+        if (line.isEmpty() || line.length() > 9 || line.length() > 1 && line.charAt(0) == '0') {
+            return -1;
+        }
+        var number = 0;
+        for (int i = 0; i < line.length(); i++) {
+            var digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof DepartureDay) {
+            var other = (DepartureDay) obj;
+            return trip_hash == other.trip_hash && seg_id == other.seg_id && dep_time == other.dep_time
+                    && line.equals(other.line) && day_code.equals(other.day_code);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return (((line.hashCode() * 31 + trip_hash) * 31 + seg_id) * 31 + dep_time) * 31 + day_code.hashCode();
+    }
+
+    /**
+     * @return the fact as it is written in regdep.pl
+     */
+    @Override
+    public String toString() {
+        return "departureday( bus_" + line + "_" + trip_hash + ", " + seg_id + ", " + dep_time + ", " + day_code + ").";
+    }
+}
@@ -0,0 +1,352 @@
+package no.busstuc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * The parsed tables of a feed kept in a binary file, so a later run on the same GTFS files maps the file
+ * instead of parsing the CSV again.
+ * <p>
+ * The file is named after a hash of the fingerprints of the GTFS files, so a snapshot is only found for the exact
+ * files it was made from. It is a list of named sections: one {@link GtfsTable} per small GTFS file, and the unique
+ * segments and trip index stop_times.txt was streamed into, as int columns. Sections are read when they are asked for.
+ * <p>
+ * The trip index is kept by row of trips.txt rather than by trip_id, so loading it decodes no trip_ids. Its trips
+ * get their handles from the trips.txt table the builders read anyway, when the index is first used.
+ */
+public class FeedSnapshot {
+    // Raise when the layout of the file or what is kept in it changes, so older snapshots are not found
+    static final int VERSION = 2;
+    private static final int MAGIC = 0x47545342; // "GTSB"
+    static final String PAS_SEGMENTS = "pas_segments";
+    private static final String TRIPS = "trips.txt";
+
+    // section name to its bytes, each section mapped on its own
+    private final HashMap<String, ByteBuffer> sections = new HashMap<>();
+    // tables read so far, the trips.txt table is shared by its phase and the trip index
+    private final ConcurrentHashMap<String, GtfsTable> tables = new ConcurrentHashMap<>();
+
+    private FeedSnapshot() {
+    }
+
+    /**
+     * @param dir          folder the snapshots are kept in
+     * @param adm_code     code of the route module, so the snapshots of different feeds are told apart
+     * @param fingerprints file name to fingerprint of the GTFS files
+     * @return path of the snapshot of exactly these files
+     */
+    public static Path path(Path dir, String adm_code, Map<String, String> fingerprints) {
+        var digest = PredicateWriter.new_digest();
+        digest.update(("snapshot " + VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        for (var input : new TreeMap<>(fingerprints).entrySet()) {
+            digest.update((input.getKey() + " " + input.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return dir.resolve(adm_code + "-" + HexFormat.of().formatHex(digest.digest(), 0, 12) + ".snapshot");
+    }
+
+    /**
+     * Finds the sections of a snapshot and maps each of them on its own, so the file may be larger than
+     * one mapping can be, nothing is decoded yet
+     *
+     * @param path path to the snapshot
+     * @return the snapshot, null if there is none, it was written by another version or it is cut short
+     * @throws IOException if the snapshot can not be read
+     */
+    public static FeedSnapshot open(Path path) throws IOException {
+        var event = new FileReadEvent();
+        event.begin();
+        event.file = path.toString();
+        var snapshot = new FeedSnapshot();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = channel.size();
+            event.bytes = size;
+            var header = read(channel, 0, 12);
+            if (header == null || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            var count = header.getInt();
+            var position = 12L;
+            for (int i = 0; i < count; i++) {
+                var name_length = read(channel, position, Integer.BYTES);
+                if (name_length == null) {
+                    return null;
+                }
+                // the name, then the length of the section
+                var name_and_length = read(channel, position + Integer.BYTES, name_length.getInt() + Integer.BYTES);
+                if (name_and_length == null) {
+                    return null;
+                }
+                var name = new String(name_and_length.array(), 0, name_and_length.capacity() - Integer.BYTES, StandardCharsets.UTF_8);
+                var length = name_and_length.getInt(name_and_length.capacity() - Integer.BYTES);
+                position += Integer.BYTES + name_and_length.capacity();
+                if (length < 0 || position + length > size) {
+                    return null;
+                }
+                snapshot.sections.put(name, channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                position += length;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        event.commit();
+        return snapshot;
+    }
+
+    /**
+     * @return the bytes at the position in the file, null if the file ends before them
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int count) throws IOException {
+        if (count < 0 || position + count > channel.size()) {
+            return null;
+        }
+        var bytes = ByteBuffer.allocate(count);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) {
+                return null;
+            }
+        }
+        return bytes.flip();
+    }
+
+    /**
+     * Writes a snapshot through a temporary file, so it is never seen half written.
+     * Each section is written straight to the file and its length filled in after it.
+     *
+     * @param path         path to the snapshot
+     * @param tables       GTFS file name to its table
+     * @param pas_segments the unique segments and trip index of stop_times.txt
+     * @param ids          the ids the trip index was made with
+     * @throws IOException if the snapshot can not be written
+     */
+    public static void write(Path path, Map<String, GtfsTable> tables, Pair<ArrayList<PasSegment>, TripIndex> pas_segments, FeedSymbols ids) throws IOException {
+        var event = new FileWriteEvent();
+        event.begin();
+        event.file = path.toString();
+        var temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tables.size() + 1);
+            for (var table : tables.entrySet()) {
+                var length = start_section(channel, out, table.getKey());
+                table.getValue().write_to(out);
+                end_section(channel, out, length);
+            }
+            var length = start_section(channel, out, PAS_SEGMENTS);
+            write_pas_segments(out, pas_segments, tables.get(TRIPS), ids);
+            end_section(channel, out, length);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        event.bytes = Files.size(path);
+        event.commit();
+    }
+
+    /**
+     * @param name name of the GTFS file
+     * @return its table, null if the snapshot does not have it
+     */
+    public GtfsTable table(String name) {
+        var section = sections.get(name);
+        return section == null ? null : tables.computeIfAbsent(name, n -> GtfsTable.read_from(section.duplicate()));
+    }
+
+    /**
+     * @param ids the ids of the feed, the trips in the index are added to it
+     * @return the unique segments and trip index of stop_times.txt, null if the snapshot does not have them
+     */
+    public Pair<ArrayList<PasSegment>, TripIndex> pas_segments(FeedSymbols ids) {
+        var section = sections.get(PAS_SEGMENTS);
+        return section == null ? null : read_pas_segments(section.duplicate(), ids);
+    }
+
+    /**
+     * The store, then seg_id, offset and length of every segment, then the number of trips in trips.txt and the seg_id
+     * and departure of the trip of every row of it, -1 for a trip that is not in the index, then trip_id, seg_id and
+     * departure of the trips in the index that are not in trips.txt
+     */
+    private static void write_pas_segments(DataOutputStream out, Pair<ArrayList<PasSegment>, TripIndex> pas_segments, GtfsTable trips, FeedSymbols ids) throws IOException {
+        var segments = pas_segments.getLeft();
+        var store = segments.isEmpty() ? new SegmentStore() : segments.get(0).getStore();
+        store.write_to(out);
+        var seg_ids = new int[segments.size()];
+        var offsets = new int[segments.size()];
+        var lengths = new int[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            seg_ids[i] = segments.get(i).getSeg_id();
+            offsets[i] = segments.get(i).getOffset();
+            lengths[i] = segments.get(i).size();
+        }
+        out.writeInt(segments.size());
+        write_ints(out, seg_ids, seg_ids.length);
+        write_ints(out, offsets, offsets.length);
+        write_ints(out, lengths, lengths.length);
+
+        var trip_index = pas_segments.getRight();
+        var row_handles = trips == null ? new int[0] : ids.trips(trips, "trip_id");
+        var row_seg_ids = new int[row_handles.length];
+        var row_departures = new int[row_handles.length];
+        // trips in the index that have a row, the rest are written by trip_id
+        var in_rows = new BitSet();
+        for (int row = 0; row < row_handles.length; row++) {
+            var trip = row_handles[row];
+            row_seg_ids[row] = -1;
+            if (trip_index.contains(trip)) {
+                row_seg_ids[row] = trip_index.seg_id(trip);
+                row_departures[row] = trip_index.departure(trip);
+                in_rows.set(trip);
+            }
+        }
+        out.writeInt(in_rows.cardinality());
+        out.writeInt(row_handles.length);
+        write_ints(out, row_seg_ids, row_seg_ids.length);
+        write_ints(out, row_departures, row_departures.length);
+
+        var other_ids = new ArrayList<String>();
+        var other_seg_ids = new int[trip_index.size()];
+        var other_departures = new int[trip_index.size()];
+        for (int trip : trip_index.trips()) {
+            if (!in_rows.get(trip)) {
+                other_seg_ids[other_ids.size()] = trip_index.seg_id(trip);
+                other_departures[other_ids.size()] = trip_index.departure(trip);
+                other_ids.add(ids.trip_id(trip));
+            }
+        }
+        write_strings(out, other_ids.toArray(new String[0]));
+        write_ints(out, other_seg_ids, other_ids.size());
+        write_ints(out, other_departures, other_ids.size());
+    }
+
+    private Pair<ArrayList<PasSegment>, TripIndex> read_pas_segments(ByteBuffer in, FeedSymbols ids) {
+        var store = SegmentStore.read_from(in);
+        var count = in.getInt();
+        var seg_ids = read_ints(in, count);
+        var offsets = read_ints(in, count);
+        var lengths = read_ints(in, count);
+        var segments = new ArrayList<PasSegment>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(new PasSegment(store, seg_ids[i], offsets[i], lengths[i]));
+        }
+
+        var row_trips = in.getInt();
+        var rows = in.getInt();
+        var row_seg_ids = read_ints(in, rows);
+        var row_departures = read_ints(in, rows);
+        var trip_index = new TripIndex();
+        var other_handles = ids.trips(read_strings(in));
+        var other_seg_ids = read_ints(in, other_handles.length);
+        var other_departures = read_ints(in, other_handles.length);
+        for (int i = 0; i < other_handles.length; i++) {
+            trip_index.put(other_handles[i], other_seg_ids[i], other_departures[i]);
+        }
+        if (rows > 0) {
+            trip_index.put_rows(() -> table(TRIPS), row_seg_ids, row_departures, row_trips, ids);
+        }
+        return Pair.of(segments, trip_index);
+    }
+
+    /**
+     * Writes the name of a section and room for its length
+     *
+     * @return position of the length in the file
+     */
+    private static long start_section(FileChannel channel, DataOutputStream out, String name) throws IOException {
+        write_string(out, name);
+        out.flush();
+        var length = channel.position();
+        out.writeInt(0);
+        return length;
+    }
+
+    /**
+     * Fills in the length of the section written since start_section
+     */
+    private static void end_section(FileChannel channel, DataOutputStream out, long length) throws IOException {
+        out.flush();
+        var bytes = ByteBuffer.allocate(Integer.BYTES).putInt(0, Math.toIntExact(channel.position() - length - Integer.BYTES));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, length + bytes.position());
+        }
+    }
+
+    static void write_string(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String read_string(ByteBuffer in) {
+        var bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the strings as their lengths in one block of ints followed by all their bytes,
+     * so they are read back with one copy out of the mapped file
+     */
+    static void write_strings(DataOutputStream out, String[] values) throws IOException {
+        var bytes = new byte[values.length][];
+        var lengths = new int[values.length];
+        var total = 0;
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            lengths[i] = bytes[i].length;
+            total += lengths[i];
+        }
+        out.writeInt(values.length);
+        write_ints(out, lengths, lengths.length);
+        out.writeInt(total);
+        for (byte[] value : bytes) {
+            out.write(value);
+        }
+    }
+
+    static String[] read_strings(ByteBuffer in) {
+        var lengths = read_ints(in, in.getInt());
+        var bytes = new byte[in.getInt()];
+        in.get(bytes);
+        var values = new String[lengths.length];
+        var offset = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new String(bytes, offset, lengths[i], StandardCharsets.UTF_8);
+            offset += lengths[i];
+        }
+        return values;
+    }
+
+    /**
+     * Writes the first n values as one block of big endian ints
+     */
+    static void write_ints(DataOutputStream out, int[] values, int n) throws IOException {
+        var bytes = ByteBuffer.allocate(n * Integer.BYTES);
+        bytes.asIntBuffer().put(values, 0, n);
+        out.write(bytes.array());
+    }
+
+    static int[] read_ints(ByteBuffer in, int n) {
+        var values = new int[n];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + n * Integer.BYTES);
+        return values;
+    }
+}
@@ -0,0 +1,310 @@
+package no.busstuc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * The trip, stop and service ids of a feed, each distinct id parsed once into an int handle and the parts
+ * the builders take from it: the line number of a trip, the number of a stop and the day code of a service.
+ * <p>
+ * Ids are Entur ids such as ATB:ServiceJourney:3_230306_1, NSR:Quay:71234 and ATB:DayType:0_12.
+ * The builders run at the same time and share the table, so every kind of id is guarded by its own lock,
+ * and a whole column of a {@link GtfsTable}, or the parts of a whole column of handles, is taken in one go.
+ */
+public class FeedSymbols {
+    private final Trips trips = new Trips();
+    private final Stops stops = new Stops();
+    private final Services services = new Services();
+
+    /**
+     * @param trip_id a trip_id
+     * @return handle of the trip
+     */
+    public int trip(String trip_id) {
+        return trips.intern(trip_id);
+    }
+
+    /**
+     * @param table  a table with trip ids
+     * @param column name of the column
+     * @return handle of the trip in every row
+     */
+    public int[] trips(GtfsTable table, String column) {
+        return trips.intern(table, column);
+    }
+
+    /**
+     * @param trip_ids trip ids
+     * @return handle of every trip
+     */
+    public int[] trips(String[] trip_ids) {
+        return trips.intern(trip_ids);
+    }
+
+    public String trip_id(int trip) {
+        return trips.id(trip);
+    }
+
+    /**
+     * @param trips handles of trips
+     * @return the line number of every trip, the first part of the third part of its trip_id
+     */
+    public String[] lines(int[] trips) {
+        return this.trips.lines(trips);
+    }
+
+    /**
+     * @param trips handles of trips
+     * @return the positive hash of the trip_id of every trip, which tells the routes of a line apart
+     */
+    public int[] trip_hashes(int[] trips) {
+        return this.trips.hashes(trips);
+    }
+
+    /**
+     * @param table  a table with stop ids
+     * @param column name of the column
+     * @return handle of the stop in every row
+     */
+    public int[] stops(GtfsTable table, String column) {
+        return stops.intern(table, column);
+    }
+
+    /**
+     * @return the number in the third part of the stop_id
+     */
+    public int stop_number(int stop) {
+        return stops.number(stop);
+    }
+
+    /**
+     * @return true if the stop is a stop place, which groups the quays the buses stop at
+     */
+    public boolean is_stop_place(int stop) {
+        return stops.stop_place(stop);
+    }
+
+    /**
+     * @param table  a table with service ids
+     * @param column name of the column
+     * @return handle of the service in every row
+     */
+    public int[] services(GtfsTable table, String column) {
+        return services.intern(table, column);
+    }
+
+    /**
+     * @param services handles of services
+     * @return the day code of every service, the third part of its service_id without underscores
+     */
+    public String[] day_codes(int[] services) {
+        return this.services.day_codes(services);
+    }
+
+    /**
+     * @param id a GTFS id such as NSR:Quay:71234
+     * @return the number in the third part of the id, without making a String
+     */
+    public static int id_number(CharSequence id) {
+        var i = 0;
+        for (var colons = 0; colons < 2; i++) {
+            if (i == id.length()) {
+                throw new NumberFormatException("Not a GTFS id: \"" + id + "\"");
+            }
+            if (id.charAt(i) == ':')
+                colons++;
+        }
+        var start = i;
+        var number = 0;
+        for (; i < id.length() && id.charAt(i) != ':'; i++) {
+            var digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Not a GTFS id: \"" + id + "\"");
+            number = number * 10 + digit;
+        }
+        if (i == start)
+            throw new NumberFormatException("Not a GTFS id: \"" + id + "\"");
+        return number;
+    }
+
+    /**
+     * @return the line number of a trip_id, the first part of its third part split on '_'
+     */
+    private static String line(String id) {
+        var first = id.indexOf(':');
+        var second = first < 0 ? -1 : id.indexOf(':', first + 1);
+        var start = second + 1;
+        if (second > 0 && start < id.length() && id.charAt(start) != ':' && id.charAt(start) != '_') {
+            var end = start;
+            while (end < id.length() && id.charAt(end) != ':' && id.charAt(end) != '_') {
+                end++;
+            }
+            return id.substring(start, end);
+        }
+        // no plain third part, the split tells what to do with it
+        return third_part(id).split("_")[0];
+    }
+
+    /**
+     * @return the third part of a GTFS id
+     */
+    private static String third_part(String id) {
+        var parts = id.split(":");
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("Not a GTFS id: \"" + id + "\"");
+        }
+        return parts[2];
+    }
+
+    /**
+     * The ids of one kind in the order they were first seen, the handle of an id is its place in that order
+     */
+    private abstract static class Kind {
+        private final HashMap<String, Integer> handles = new HashMap<>();
+        // dictionary of a table column to the handles of its values, so a column taken again is not looked up again
+        private final IdentityHashMap<String[], int[]> dictionary_handles = new IdentityHashMap<>();
+        protected String[] ids = new String[1024];
+        protected int size = 0;
+
+        synchronized int intern(String id) {
+            var handle = handles.putIfAbsent(id, size);
+            if (handle != null) {
+                return handle;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                grow(size * 2);
+            }
+            ids[size] = id;
+            parse(size, id);
+            return size++;
+        }
+
+        /**
+         * Interns the distinct values of the column once, then gives every row the handle of its value
+         */
+        synchronized int[] intern(GtfsTable table, String column) {
+            var index = table.column(column);
+            var dictionary = table.dictionary(index);
+            var handles = dictionary_handles.get(dictionary);
+            if (handles == null) {
+                handles = new int[dictionary.length];
+                for (int code = 0; code < dictionary.length; code++) {
+                    handles[code] = intern(dictionary[code]);
+                }
+                dictionary_handles.put(dictionary, handles);
+            }
+            var rows = new int[table.size()];
+            for (int row = 0; row < rows.length; row++) {
+                rows[row] = handles[table.code(row, index)];
+            }
+            return rows;
+        }
+
+        synchronized int[] intern(String[] ids) {
+            var handles = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                handles[i] = intern(ids[i]);
+            }
+            return handles;
+        }
+
+        synchronized String id(int handle) {
+            return ids[handle];
+        }
+
+        /**
+         * Makes room for the parts of capacity ids
+         */
+        protected abstract void grow(int capacity);
+
+        /**
+         * Takes the parts out of a new id
+         */
+        protected abstract void parse(int handle, String id);
+    }
+
+    private static class Trips extends Kind {
+        private String[] lines = new String[1024];
+        private int[] hashes = new int[1024];
+        // the lines are few, each is kept once
+        private final HashMap<String, String> distinct_lines = new HashMap<>();
+
+        @Override
+        protected void grow(int capacity) {
+            lines = Arrays.copyOf(lines, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+
+        @Override
+        protected void parse(int handle, String id) {
+            lines[handle] = distinct_lines.computeIfAbsent(line(id), l -> l);
+            hashes[handle] = Math.abs(id.hashCode());
+        }
+
+        synchronized String[] lines(int[] trips) {
+            var trip_lines = new String[trips.length];
+            for (int i = 0; i < trips.length; i++) {
+                trip_lines[i] = lines[trips[i]];
+            }
+            return trip_lines;
+        }
+
+        synchronized int[] hashes(int[] trips) {
+            var trip_hashes = new int[trips.length];
+            for (int i = 0; i < trips.length; i++) {
+                trip_hashes[i] = hashes[trips[i]];
+            }
+            return trip_hashes;
+        }
+    }
+
+    private static class Stops extends Kind {
+        private int[] numbers = new int[1024];
+        private boolean[] stop_places = new boolean[1024];
+
+        @Override
+        protected void grow(int capacity) {
+            numbers = Arrays.copyOf(numbers, capacity);
+            stop_places = Arrays.copyOf(stop_places, capacity);
+        }
+
+        @Override
+        protected void parse(int handle, String id) {
+            stop_places[handle] = id.contains("StopPlace");
+            // stop places are skipped, their ids do not have to be numbers
+            numbers[handle] = stop_places[handle] ? -1 : Integer.parseInt(third_part(id));
+        }
+
+        synchronized int number(int stop) {
+            return numbers[stop];
+        }
+
+        synchronized boolean stop_place(int stop) {
+            return stop_places[stop];
+        }
+    }
+
+    private static class Services extends Kind {
+        private String[] day_codes = new String[1024];
+
+        @Override
+        protected void grow(int capacity) {
+            day_codes = Arrays.copyOf(day_codes, capacity);
+        }
+
+        @Override
+        protected void parse(int handle, String id) {
+            day_codes[handle] = third_part(id).replace("_", "");
+        }
+
+        synchronized String[] day_codes(int[] services) {
+            var service_day_codes = new String[services.length];
+            for (int i = 0; i < services.length; i++) {
+                service_day_codes[i] = day_codes[services[i]];
+            }
+            return service_day_codes;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package no.busstuc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of reading a GTFS file or a snapshot, from opening it until it is closed
+ */
+@Name("no.busstuc.FileRead")
+@Label("File Read")
+@Category({"BussTUC", "I/O"})
+@Description("A GTFS file or snapshot read by the converter")
+class FileReadEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Rows")
+    @Description("Rows read, not counting the header")
+    long rows;
+
+    @Label("Bytes")
+    @Description("Uncompressed bytes read")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,28 @@
+package no.busstuc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of writing a predicate file or a snapshot, from opening it until it is closed
+ */
+@Name("no.busstuc.FileWrite")
+@Label("File Write")
+@Category({"BussTUC", "I/O"})
+@Description("A predicate file or snapshot written by the converter")
+class FileWriteEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Lines")
+    @Description("Lines written, counting the header of a predicate file")
+    long lines;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
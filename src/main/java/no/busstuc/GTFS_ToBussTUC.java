@@ -6,10 +6,7 @@ package no.busstuc;
  * This project is intended to work in unison with https://github.com/saetre/busstuc
  */
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -31,178 +28,133 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.regex.Pattern;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
 public class GTFS_ToBussTUC {
-    // Global time variables and constants
-    static LocalDate starting_date = null;
-    static LocalDate ending_date = null;
     static final DateTimeFormatter IN_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
     static final DateTimeFormatter OUT_FORMAT = DateTimeFormatter.ofPattern("yyMMdd");
 
-
-    // Globing pattern for which type of files to find
-    static String glob_pattern = "glob:**/*.txt";
     // Input folder to find the files to convert
-    static String data_path = "../busstuc/db/tables_GTFS_2022.05";
+    static final String DEFAULT_DATA_PATH = "../busstuc/db/tables_GTFS_2022.05";
     // The output folder path... may be absolute or relative
-    static String out_folder = "../busstuc/db/tables";
-    // stat_id to quay mappings
-    static HashMap<Integer, String> stat_ids = new HashMap<>();
+    static final String DEFAULT_OUT_FOLDER = "../busstuc/db/tables";
+
+    // The columns of stop_times.txt that are read, in the order of the slots used in make_pas_segments
+    static final String[] STOP_TIMES_COLUMNS = {"trip_id", "stop_id", "arrival_time", "departure_time", "stop_sequence"};
+    private static final int TRIP_ID = 0, STOP_ID = 1, ARRIVAL_TIME = 2, DEPARTURE_TIME = 3, STOP_SEQUENCE = 4;
+    // The columns of the smaller files that are read into a GtfsTable
+    static final String[] CALENDAR_COLUMNS = {"service_id", "monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday", "start_date", "end_date"};
+    static final String[] CALENDAR_DATES_COLUMNS = {"service_id", "date", "exception_type"};
+    static final String[] TRIPS_COLUMNS = {"trip_id", "service_id"};
+    static final String[] STOPS_COLUMNS = {"stop_id", "stop_name", "platform_code"};
 
-    // Will contain list of street endings
-    static ArrayList<String> gater;
+    // List of street endings
+    static final List<String> GATER = List.of("gata", "gate", "gaten", "gt", "v", "veg", "vegen", "vei", "veien", "vg", "vn");
 
-    @SuppressWarnings("deprecation")
     public static void main(String[] args) {
-        var start_time = System.currentTimeMillis();
         String usage = "GTFS_ToB~64 USAGE:\n"
                 + "java GTFS_ToBussTUC"
-                + " [INPUT_FOLDER] [OUTPUT_FOLDER]\n"
-                + "Converting the GTFS source in INPUT_FOLDER,\n"
-                + "creating the prolog code which is stored in OUTPUT_FOLDER\n";
-
-        if(args.length != 2){
-            System.err.println( usage );	//System.exit(1);
-            System.err.println("Assuming default paths:");
-            System.err.println("SOURCE: "+ data_path ); // "./data");
-            System.err.println("OUTPUT: "+ out_folder ); // "./tables");
-        }else{
-            data_path = args[0];
-            out_folder = args[1];
-        }
-
-        var separator = File.separator;
-
-        ArrayList<String> files_list = new ArrayList<>();
-
-        try {
-            files_list = match(glob_pattern, data_path);
-        } catch (Exception e) {
-            e.printStackTrace();
+                + " [--legacy-order] [--full] [--snapshot DIR] [--jfr FILE] [--sort-memory MB] [--sort-dir DIR] [INPUT_FOLDER] [OUTPUT_FOLDER]\n"
+                + "java GTFS_ToBussTUC"
+                + " [--legacy-order] [--full] [--snapshot DIR] [--jfr FILE] [--sort-memory MB] [--sort-dir DIR] [--max-feeds N] --batch OUTPUT_FOLDER INPUT_FOLDER ADM_CODE [INPUT_FOLDER ADM_CODE ...]\n"
+                + "Converting the GTFS source in INPUT_FOLDER, a folder or a GTFS .zip,\n"
+                + "creating the prolog code which is stored in OUTPUT_FOLDER\n"
+                + "--legacy-order sorts regpas.pl and regdep.pl as text, like earlier versions did\n"
+                + "--full makes every file again, even when its GTFS files have not changed since the last run\n"
+                + "--snapshot keeps the parsed GTFS files in DIR, a later run on the same files reads them from there instead\n"
+                + "--sort-memory is the memory in MB used to sort a stop_times.txt that is not grouped by trip (default 64)\n"
+                + "--sort-dir is the folder that sort spills to (default the temporary folder)\n"
+                + "--jfr records the run with the flight recorder, with an event per builder and per file read and written, into FILE at exit\n"
+                + "--batch converts every INPUT_FOLDER into a route folder named by its ADM_CODE, at most N at a time (default 2)\n";
+
+        var legacy_order = false;
+        var batch = false;
+        var incremental = true;
+        var max_feeds = 2;
+        String snapshot_dir = null;
+        var sort_memory = ConverterConfig.DEFAULT_SORT_MEMORY;
+        var sort_dir = System.getProperty("java.io.tmpdir");
+        var positional = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--legacy-order" -> legacy_order = true;
+                case "--batch" -> batch = true;
+                case "--full" -> incremental = false;
+                case "--max-feeds" -> max_feeds = Integer.parseInt(args[++i]);
+                case "--snapshot" -> snapshot_dir = args[++i];
+                case "--jfr" -> start_recording(args[++i]);
+                case "--sort-memory" -> sort_memory = Long.parseLong(args[++i]) << 20;
+                case "--sort-dir" -> sort_dir = args[++i];
+                default -> positional.add(args[i]);
+            }
         }
+        args = positional.toArray(new String[0]);
 
-        File calendar_file = null;
-        File calendar_dates_file = null;
-        File trips_file = null;
-        File stops_file = null;
-        String stop_times_path = "";
-
-        try {
-            for (String path : files_list) {
-                if (separator.equals("\\")) {
-                    path = path.replaceAll(Pattern.quote(separator), "\\\\");
-                }
-                var strings = path.split(Pattern.quote(separator));
-                switch (strings[strings.length - 1]) {
-                    case "calendar.txt" -> calendar_file = new File(path);
-                    case "calendar_dates.txt" -> calendar_dates_file = new File(path);
-                    case "trips.txt" -> trips_file = new File(path);
-                    case "stops.txt" -> stops_file = new File(path);
-                    case "stop_times.txt" -> stop_times_path = path;
-                    default -> System.out.println(path + " not used");
+        if (batch) {
+            if (args.length < 3 || args.length % 2 != 1) {
+                System.err.println( usage );
+                System.exit(1);
+            }
+            var feeds = new ArrayList<Pair<String, String>>();
+            for (int i = 1; i < args.length; i += 2) {
+                feeds.add(Pair.of(args[i], args[i + 1]));
+            }
+            var results = GtfsConverter.convert_batch(args[0], feeds, max_feeds, legacy_order, incremental, snapshot_dir, sort_memory, sort_dir);
+            for (ConversionResult result : results) {
+                if (result.isFailed()) {
+                    System.exit(1);
                 }
             }
-
-        } catch (NullPointerException e) {
-            e.printStackTrace();
+            return;
         }
 
+        ConverterConfig config;
+        if(args.length != 2){
+            System.err.println( usage );	//System.exit(1);
+            System.err.println("Assuming default paths:");
+            System.err.println("SOURCE: "+ DEFAULT_DATA_PATH ); // "./data");
+            System.err.println("OUTPUT: "+ DEFAULT_OUT_FOLDER ); // "./tables");
+            config = new ConverterConfig(DEFAULT_DATA_PATH, DEFAULT_OUT_FOLDER);
+        }else{
+            config = new ConverterConfig(args[0], args[1]);
+        }
+        config.setLegacy_order(legacy_order);
+        config.setIncremental(incremental);
+        config.setSnapshot_dir(snapshot_dir);
+        config.setSort_memory(sort_memory);
+        config.setSort_dir(sort_dir);
 
-        CSVFormat csv_format = CSVFormat.EXCEL.withHeader();
-
-        CSVParser parser;
-        List<CSVRecord> calendar_csv = null;
-        List<CSVRecord> calendar_dates_csv = null;
-        List<CSVRecord> trips_csv = null;
-        List<CSVRecord> stops_csv = null;
-        ArrayList<CSVRecord> stop_times_csv = new ArrayList<>();
+        new GtfsConverter(config).convert();
+    } // main method
 
+    /**
+     * Starts a flight recording with the profile settings and the events of the converter, dumped to the file when the JVM exits
+     *
+     * @param file path of the recording
+     */
+    static void start_recording(String file) {
         try {
-            assert calendar_file != null;
-            parser = CSVParser.parse(calendar_file, StandardCharsets.UTF_8, csv_format);
-            calendar_csv = parser.getRecords();
-
-            assert calendar_dates_file != null;
-            parser = CSVParser.parse(calendar_dates_file, StandardCharsets.UTF_8, csv_format);
-            calendar_dates_csv = parser.getRecords();
-
-            assert trips_file != null;
-            parser = CSVParser.parse(trips_file, StandardCharsets.UTF_8, csv_format);
-            trips_csv = parser.getRecords();
-
-            assert stops_file != null;
-            parser = CSVParser.parse(stops_file, StandardCharsets.UTF_8, csv_format);
-            stops_csv = parser.getRecords();
-
-            try (BufferedReader reader = new BufferedReader(new FileReader(stop_times_path), 1048576 * 10)) {
-                Iterable<CSVRecord> records = csv_format.parse(reader);
-                for (CSVRecord record : records) {
-                    stop_times_csv.add(record);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-        } catch (IOException | NullPointerException e) {
-            e.printStackTrace();
-        }
-        System.out.println("**********************************************************************");
-        System.out.println("All files read");
-        System.out.println("\nParsing calendar.txt and calendar_dates.txt to regdko.pl");
-        var dko_list = make_regdko_list(calendar_csv, calendar_dates_csv);
-        System.out.println("*** DKO parsing finished");
-        System.out.println("**********************************************************************");
-        System.out.println("\nParsing to regbus.pl");
-        var bus_list = make_regbus_list(trips_csv);
-        System.out.println("*** regbus parsing finished.");
-        System.out.println("**********************************************************************");
-        System.out.println("\nParsing to regcomp and reghpl ...");
-        var comp_and_hpl_list_and_statids = make_regcomp_and_hpl_list(stops_csv);
-        System.out.println("*** regcomp and reghpl parsing finished.");
-        System.out.println("**********************************************************************");
-        stat_ids = comp_and_hpl_list_and_statids.getRight();
-        System.out.println("\nParsing to regdep and regpas ...");
-        var pas_and_dep_lists = make_regpas_and_dep_list(stop_times_csv, trips_csv, dko_list.getRight());
-        System.out.println("**********************************************************************");
-        System.out.println("Congratulations parsing finished successfully, writing files now ....");
-
-        File newDir = new File(out_folder + separator + "r160_" + starting_date.format(OUT_FORMAT));
-        if (newDir.mkdir()) {
-            System.out.println(newDir.getAbsolutePath() + " created...");
-        } else {
-            System.err.println("Writing into existing folder");
+            var recording = new Recording(Configuration.getConfiguration("profile"));
+            recording.setName("GTFS_ToBussTUC");
+            recording.enable(BuilderEvent.class);
+            recording.enable(FileReadEvent.class);
+            recording.enable(FileWriteEvent.class);
+            recording.setDestination(Paths.get(file));
+            recording.setDumpOnExit(true);
+            recording.start();
+            System.out.println("Recording to " + file);
+        } catch (IOException | java.text.ParseException e) {
+            System.err.println("Could not start the flight recording: " + e);
         }
-
-        predicate_printer(dko_list.getLeft(), newDir.getAbsolutePath() + separator + "regdko.pl");
-        predicate_printer(bus_list, newDir.getAbsolutePath() + separator + "regbus.pl");
-        predicate_printer(comp_and_hpl_list_and_statids.getLeft(), newDir.getAbsolutePath() + separator + "regcomp.pl");
-        predicate_printer(comp_and_hpl_list_and_statids.getMiddle(), newDir.getAbsolutePath() + separator + "reghpl.pl");
-        predicate_printer(pas_and_dep_lists.getLeft(), newDir.getAbsolutePath() + separator + "regpas.pl");
-        predicate_printer(pas_and_dep_lists.getRight(), newDir.getAbsolutePath() + separator + "regdep.pl");
-
-        var stop_time = System.currentTimeMillis();
-        System.out.println("Writing finished");
-
-        System.out.println("Elapsed time: " + (stop_time - start_time) + " msec.");
-
-        System.out.println("\nUpdating routes ....");
-        String route_period_path = newDir.toPath().toAbsolutePath().getParent().getParent().toString() + separator + "route_period.pl";
-        UpdateRoutePeriode.main(new String[]{"Auto Update: " + LocalDate.now(), "r160", starting_date.format(OUT_FORMAT), ending_date.format(OUT_FORMAT), route_period_path});
-        System.out.println("Route Periods updated ... ");
-
-        String version_pl_path = newDir.toPath().toAbsolutePath().getParent().getParent().getParent().toString() + separator + "version.pl";
-        System.out.println("\nUpdating version.pl ... ");
-        version_update("Automatic update", version_pl_path);
-    } // main method
+    }
 
     /**
      * A simple method to glob path to all files in a location
@@ -241,130 +193,138 @@ public class GTFS_ToBussTUC {
     /**
      * Methos that parses the content for regbus.pl file
      *
-     * @param trips list of records from the trips.txt file
+     * @param trips the trips.txt table
+     * @param ids   the ids of the feed
      * @return list of content to print into regbus.pl
      */
-    private static ArrayList<String> make_regbus_list(List<CSVRecord> trips) {
-        var regbus = new ArrayList<String>();
-
-        for (CSVRecord record : trips) {
-            var line = record.get("trip_id").split(":")[2].split("_");
-            var bus = "regbus(" + line[0] + ").";
-            var route = "route(bus_" + line[0] + "_" + Math.abs(record.get("trip_id").hashCode()) + "," + line[0] + "," + line[0] + ").";
+    static ArrayList<String> make_regbus_list(GtfsTable trips, FeedSymbols ids) {
+        var event = BuilderEvent.begin("make_regbus_list");
+        var regbus = new PredicateSet();
 
-            if (!regbus.contains(bus))
-                regbus.add(bus);
+        var trip_handles = ids.trips(trips, "trip_id");
+        var lines = ids.lines(trip_handles);
+        var hashes = ids.trip_hashes(trip_handles);
+        for (int row = 0; row < trip_handles.length; row++) {
+            var line = lines[row];
+            var bus = "regbus(" + line + ").";
+            var route = "route(bus_" + line + "_" + hashes[row] + "," + line + "," + line + ").";
 
-            if (!regbus.contains(route))
-                regbus.add(route);
+            regbus.add(bus);
+            regbus.add(route);
         }
 
-        regbus.sort(null);
-
-        return regbus;
+        var regbus_list = regbus.toSortedList();
+        event.finish(trips.size(), regbus_list.size());
+        return regbus_list;
     }
 
     /**
      * Parses the stops.txt file into regcomp.pl and reghpl.pl format
      *
-     * @param stops the list of csv records
+     * @param stops the stops.txt table
+     * @param ids   the ids of the feed
      * @return tuple of regcomp and reghpl
      */
-    private static Triple<ArrayList<String>, ArrayList<String>, HashMap<Integer, String>> make_regcomp_and_hpl_list(List<CSVRecord> stops) {
-        gater = new ArrayList<String>();
-        gater.add("gata");
-        gater.add("gate");
-        gater.add("gaten");
-        gater.add("gt");
-        gater.add("v");
-        gater.add("veg");
-        gater.add("vegen");
-        gater.add("vei");
-        gater.add("veien");
-        gater.add("vg");
-        gater.add("vn");
-
-        var comp_list = new ArrayList<String>();
-        var hpl_list = new ArrayList<String>();
+    static Triple<ArrayList<String>, ArrayList<String>, HashMap<Integer, String>> make_regcomp_and_hpl_list(GtfsTable stops, FeedSymbols ids) {
+        var event = BuilderEvent.begin("make_regcomp_and_hpl_list");
+        var comp_list = new PredicateSet();
+        var hpl_list = new PredicateSet();
         var stat_id = new HashMap<Integer, String>();
 
 
-        for (CSVRecord record : stops) {
-            if (record.get("stop_id").contains("StopPlace"))
+        var stop_handles = ids.stops(stops, "stop_id");
+        for (int row = 0; row < stop_handles.length; row++) {
+            if (ids.is_stop_place(stop_handles[row]))
                 continue;
-            setHpl(comp_list, record, hpl_list, stat_id);
+            setHpl(comp_list, stops.row(row), ids.stop_number(stop_handles[row]), hpl_list, stat_id);
         }
 
-        comp_list.sort(null);
-        hpl_list.sort(null);
-
-        return Triple.of(comp_list, hpl_list, stat_id);
+        event.finish(stops.size(), comp_list.size() + hpl_list.size());
+        return Triple.of(comp_list.toSortedList(), hpl_list.toSortedList(), stat_id);
     }
 
     /**
-     * Function that parses the calendar.txt and calendar_date.txt to regdko.pl format
+     * Finds the period the routes are valid for
      *
-     * @param calendar       calendar.txt as a list of csv records
-     * @param calendar_dates calendar_dates.txt as a list of csv records
-     * @return list of strings to be printed in regdko.pl
+     * @param calendar the calendar.txt table
+     * @return pair of the first Monday any service starts on and the last end date of any service
      */
-    private static Pair<ArrayList<String>, HashMap<String, String>> make_regdko_list(List<CSVRecord> calendar, List<CSVRecord> calendar_dates) {
-        starting_date = get_next_monday(get_date(calendar.get(0).get("start_date"))); // denotes the first start date it finds will be updated later
-        ending_date = get_date(calendar.get(0).get("end_date"));
-        var mask_length = 406; // some long length unlikely to be exceeded in Prolog code unless server auto update fails for a long period of time
-
-        ArrayList<DKO> dko_list = new ArrayList<>();
-
-        // Updates the starting date
-        for (CSVRecord record : calendar) {
+    static Pair<LocalDate, LocalDate> get_validity(GtfsTable calendar) {
+        var starting_date = get_next_monday(get_date(calendar.row(0).get("start_date")));
+        var ending_date = get_date(calendar.row(0).get("end_date"));
+        for (GtfsTable.Row record : calendar) {
             var curr_monday = get_next_monday(get_date(record.get("start_date")));
             if (curr_monday.isBefore(starting_date)) {
                 starting_date = curr_monday;
             }
-        }
-        for (CSVRecord record : calendar) {
             if (get_date(record.get("end_date")).isAfter(ending_date)) {
                 ending_date = get_date(record.get("end_date"));
             }
+        }
+        return Pair.of(starting_date, ending_date);
+    }
 
+    /**
+     * Function that parses the calendar.txt and calendar_date.txt to regdko.pl format
+     *
+     * @param calendar       the calendar.txt table
+     * @param calendar_dates the calendar_dates.txt table
+     * @param starting_date  first day of the day masks, from get_validity
+     * @param ids            the ids of the feed
+     * @return list of strings to be printed in regdko.pl
+     */
+    public static Pair<ArrayList<String>, HashMap<String, String>> make_regdko_list(GtfsTable calendar, GtfsTable calendar_dates, LocalDate starting_date, FeedSymbols ids) {
+        var event = BuilderEvent.begin("make_regdko_list");
+        var mask_length = 406; // some long length unlikely to be exceeded in Prolog code unless server auto update fails for a long period of time
+
+        ArrayList<DKO> dko_list = new ArrayList<>();
+        // day_code to the first DKO with that day code, so calendar_dates rows are applied without scanning dko_list
+        HashMap<String, DKO> dko_index = new HashMap<>();
+
+        var day_codes = ids.day_codes(ids.services(calendar, "service_id"));
+        for (int row = 0; row < day_codes.length; row++) {
+            var record = calendar.row(row);
             var weeks = record.get("monday") + record.get("tuesday") + record.get("wednesday") + record.get("thursday") + record.get("friday") + record.get("saturday") + record.get("sunday");
-            StringBuilder days = new StringBuilder();
             var record_starting_monday = get_next_monday(get_date(record.get("start_date")));
-            long days_valid = ChronoUnit.DAYS.between(record_starting_monday, get_date(record.get("end_date")));
-            long days_befor_validity = ChronoUnit.DAYS.between(starting_date, record_starting_monday);
-            // make string of validity
+            var days_valid = (int) Math.max(0, ChronoUnit.DAYS.between(record_starting_monday, get_date(record.get("end_date"))));
+            var days_befor_validity = (int) ChronoUnit.DAYS.between(starting_date, record_starting_monday);
+            // make mask of validity, the mask only grows past mask_length if the period itself is longer
+            var days = new DayMask(Math.max(mask_length, days_befor_validity + days_valid));
             for (int i = 0; i < days_valid; i++) {
-                days.append(weeks.charAt(i % 7));
+                days.set(days_befor_validity + i, weeks.charAt(i % 7) == '1');
             }
 
-            days = new StringBuilder(padLeft(days.toString(), (int) days_befor_validity));
-
-            days = new StringBuilder(padRight(days.toString(), (mask_length - days.length())));
-
-            dko_list.add(new DKO(record.get("service_id").split(":")[2].replaceAll("_",""), record_starting_monday, get_date(record.get("end_date")), weeks, days.toString()));
+            var dko = new DKO(day_codes[row], record_starting_monday, get_date(record.get("end_date")), weeks, days);
+            dko_list.add(dko);
+            dko_index.putIfAbsent(dko.getDay_code(), dko);
         }
 
-        for (CSVRecord record : calendar_dates) {
-            var temp = new DKO();
-            var temp_day_code = record.get("service_id").split(":")[2].replaceAll("_","");
-            temp.setDay_code(temp_day_code);
+        var exceptions_applied = 0;
+        var special_created = 0;
+        var date_day_codes = ids.day_codes(ids.services(calendar_dates, "service_id"));
+        for (int row = 0; row < date_day_codes.length; row++) {
+            var record = calendar_dates.row(row);
+            var temp_day_code = date_day_codes[row];
             var date = get_date(record.get("date"));
             var day_from_start = ChronoUnit.DAYS.between(starting_date, date);
-            if (dko_list.contains(temp)) {
-                var other_dko = dko_list.get(dko_list.indexOf(temp));
+            var other_dko = dko_index.get(temp_day_code);
+            if (other_dko != null) {
+                exceptions_applied++;
                 if (record.get("exception_type").equals("2")) {
-                    other_dko.setDays(replaceCharUsingCharArray(other_dko.getDays(), '0', (int) day_from_start));
+                    other_dko.getDays().set((int) day_from_start, false);
                 } else {
-                    other_dko.setDays(replaceCharUsingCharArray(other_dko.getDays(), '1', (int) day_from_start));
+                    other_dko.getDays().set((int) day_from_start, true);
                     other_dko.setTo(date.plus(1, ChronoUnit.DAYS));
                 }
             } else {
-                var day_mask = new char[406];
-                Arrays.fill(day_mask, '0');
+                special_created++;
+                var temp = new DKO();
+                temp.setDay_code(temp_day_code);
+                var day_mask = new DayMask(mask_length);
                 if (record.get("exception_type").equals("1")) {
-                    day_mask[(int) day_from_start] = '1';
+                    day_mask.set((int) day_from_start, true);
                 }
-                temp.setDays(String.valueOf(day_mask));
+                temp.setDays(day_mask);
                 temp.setWeek1("Special");
                 temp.setWeek2("Special");
                 temp.setWeek3("Special");
@@ -373,149 +333,221 @@ public class GTFS_ToBussTUC {
                 temp.setTo(date.plus(1, ChronoUnit.DAYS));
 
                 dko_list.add(temp);
+                dko_index.put(temp_day_code, temp);
             }
         }
+        System.out.println("calendar_dates: " + exceptions_applied + " exceptions applied to existing DKOs, " + special_created + " Special DKOs created");
+        PhaseMetrics.count("exceptions_applied", exceptions_applied);
+        PhaseMetrics.count("special_dkos", special_created);
         HashMap<String, String> old_to_new_day_code = new HashMap<>();
 
+        // DKOs with identical masks are grouped in the order they are first seen,
+        // and every DKO in a group takes over the day code of the first one
+        LinkedHashMap<DayMask, ArrayList<DKO>> equal_masks = new LinkedHashMap<>();
         for (DKO dko :
                 dko_list) {
+            equal_masks.computeIfAbsent(dko.getDays(), days -> new ArrayList<>()).add(dko);
+        }
+        for (ArrayList<DKO> group :
+                equal_masks.values()) {
+            var dko = group.get(0);
             for (DKO other_dko :
-                    dko_list) {
+                    group) {
                 if (!dko.equals(other_dko)) {
-                    if (dko.getDays().equals(other_dko.getDays())) {
-                        other_dko.setOld_day_code(other_dko.getDay_code());
-                        other_dko.setDay_code(dko.getDay_code());
-                        old_to_new_day_code.put(other_dko.getOld_day_code(), other_dko.getDay_code());
-                    }
+                    other_dko.setOld_day_code(other_dko.getDay_code());
+                    other_dko.setDay_code(dko.getDay_code());
+                    old_to_new_day_code.put(other_dko.getOld_day_code(), other_dko.getDay_code());
                 }
             }
         }
 
-        ArrayList<String> regdko = new ArrayList<>();
+        var regdko_set = new PredicateSet();
 
         for (DKO dko : dko_list) {
-            var print_string = dko.toString();
-            if (!regdko.contains(print_string))
-                regdko.add(print_string);
+            regdko_set.add(dko.toString());
         }
-        regdko.sort(null);
+        var regdko = regdko_set.toSortedList();
         regdko.add(0, "dkodate(" + starting_date.format(OUT_FORMAT) + ",1).");
+        PhaseMetrics.count("dkos_merged", old_to_new_day_code.size());
+        PhaseMetrics.count("dkos_out", regdko_set.size());
 
+        event.finish(calendar.size() + calendar_dates.size(), regdko.size());
         return Pair.of(regdko, old_to_new_day_code);
     }
 
     /**
-     * @param stop_times list of csv records of stop times
-     * @param trips      list of trips csv records
-     * @param old_to_new_day_code list of altered dko's
-     * @return tuple with list of dep and pas outputs
+     * Builds the trip segments while stop_times.txt is being read, so that only one record is held at a time.
+     * Each finished segment is compared against the ones already kept, and only unique segments are stored.
+     *
+     * A new segment starts where the trip_id changes.
+     *
+     * @param stop_times reader over stop_times.txt opened with STOP_TIMES_COLUMNS, grouped by trip in stop_sequence order
+     * @param ids        the ids of the feed
+     * @return pair of the unique segments and the trip index with seg_id and first departure time of each trip
+     * @throws IOException             if stop_times.txt can not be read
+     * @throws StopTimesOrderException if the rows of a trip are not together or not in stop_sequence order
      */
-    private static Pair<ArrayList<String>, ArrayList<String>> make_regpas_and_dep_list(ArrayList<CSVRecord> stop_times, List<CSVRecord> trips, HashMap<String, String> old_to_new_day_code) {
-        ArrayList<PasSegment> all_passes = new ArrayList<>();
-        HashMap<String, Integer> trip_seg_mapping = new HashMap<>();
-
+    static Pair<ArrayList<PasSegment>, TripIndex> make_pas_segments(GtfsCsvReader stop_times, FeedSymbols ids) throws IOException {
+        var event = BuilderEvent.begin("make_pas_segments");
+        ArrayList<PasSegment> no_dup = new ArrayList<>();
+        // unique segment to its seg_id, makes the duplicate check a hash lookup instead of a scan through no_dup
+        HashMap<PasSegment, Integer> pattern_index = new HashMap<>();
+        var trip_index = new TripIndex();
+
+        var store = new SegmentStore();
+        var trip = -1;
+        String trip_id = null;
+        // the trip_id as it is in the file, the rows of the trip are compared with it without decoding them
+        byte[] trip_bytes = null;
+        var last_seq = 0;
+        var trip_departure = 0;
+        var start_time = 0;
         var counter = 0;
 
         // loop through all the stops times and extract and parse the information that is needed for the pas and dep files.
-        for (CSVRecord record :
-                stop_times) {
-            var seq = Integer.parseInt(record.get("stop_sequence"));
-            if (seq == 1 ) { // not starting from 0 anymore ??!!?? RS-2022.05.02	//System.err.println( counter );
+        while (stop_times.next()) {
+            var seq = stop_times.getInt(STOP_SEQUENCE);
+            // Converting to minutes from midnight
+            var arrival_time = GtfsTime.minutes(stop_times.get(ARRIVAL_TIME));
+            var depart_time = GtfsTime.minutes(stop_times.get(DEPARTURE_TIME));
+            var stop = FeedSymbols.id_number(stop_times.get(STOP_ID));
+            if (trip_bytes == null || !stop_times.equals(TRIP_ID, trip_bytes)) {
+                if (trip != -1)
+                    add_segment(store.pending(counter), trip, trip_departure, no_dup, pattern_index, trip_index);
                 counter++;
-                var trip_id = record.get("trip_id");
-                all_passes.add(new PasSegment(counter, new ArrayList<>(), trip_id));
-                all_passes.get(counter - 1).add(new PasHelper(record.get("stop_id").split(":")[2], record.get("arrival_time"), record.get("departure_time"), Integer.parseInt(record.get("stop_sequence"))));
-                trip_seg_mapping.put(trip_id, counter);
+                trip_bytes = stop_times.getBytes(TRIP_ID);
+                trip_id = new String(trip_bytes, StandardCharsets.UTF_8);
+                trip = ids.trip(trip_id);
+                if (trip_index.contains(trip))
+                    throw new StopTimesOrderException("Trip " + trip_id + " comes back on row " + stop_times.getRows() + " after other trips");
+                last_seq = seq;
+                trip_departure = depart_time;
+                start_time = arrival_time;
+                store.start();
+                // Always leave at the same time it arrives on first stop
+                store.add(stop, seq, 999, 0);
                 continue;
             }
-            var start_time_split = all_passes.get(counter - 1).getPasses().get(0).getArrival_time().split(":");
-            var start_time = Integer.parseInt(start_time_split[0]) * 60 + Integer.parseInt(start_time_split[1]);
-            // Converting to minutes from midnight
-            var arrival_time_split = record.get("arrival_time").split(":");
-            var arrival_time = Integer.parseInt(arrival_time_split[0]) * 60 + Integer.parseInt(arrival_time_split[1]);
-            // Converting to minutes from midnight
-            var depart_time_split = record.get("departure_time").split(":");
-            var depart_time = Integer.parseInt(depart_time_split[0]) * 60 + Integer.parseInt(depart_time_split[1]);
+            if (seq <= last_seq)
+                throw new StopTimesOrderException("stop_sequence " + seq + " of trip " + trip_id + " on row " + stop_times.getRows() + " is not after " + last_seq);
+            last_seq = seq;
             // Calculating the minutes off sett from starting time in the first part the segment
             var arr = arrival_time - start_time;
             var dep = depart_time - start_time;
 
-            all_passes.get(counter - 1).add(new PasHelper(record.get("stop_id").split(":")[2], record.get("arrival_time"), record.get("departure_time"), Integer.parseInt(record.get("stop_sequence")), arr, dep));
+            store.add(stop, seq, arr, dep);
         }
+        if (trip != -1)
+            add_segment(store.pending(counter), trip, trip_departure, no_dup, pattern_index, trip_index);
 
-        ArrayList<PasSegment> no_dup = new ArrayList<>();
+        event.finish(stop_times.getRows(), no_dup.size());
+        return Pair.of(no_dup, trip_index);
+    }
 
-        /* This part unfortunately has a runtime of O(n^2) at worst and O(nlog(n)) at best,
-         but none of these will occur and will be somewhere in between closer to O(nlog(n)),
-         As the no_dup list will not grow linearly. */
-        for (PasSegment segment : all_passes) {
-            var index = is_unique(segment, no_dup);
-            if (index == -1) {
-                no_dup.add(segment);
-            } else {
-                trip_seg_mapping.replace(segment.getTrip_id(), trip_seg_mapping.get(all_passes.get(index).getTrip_id()));
-            }
+    /**
+     * @param pas_segments unique segments and the trip index of seg_id and first departure
+     * @param trips      the trips.txt table
+     * @param old_to_new_day_code list of altered dko's
+     * @param stat_ids   stop_id to stat_id mappings
+     * @param legacy_order sort as text, the way the files were sorted before they were kept as facts
+     * @param ids        the ids of the feed
+     * @return tuple with the content of regpas.pl and regdep.pl
+     */
+    static Pair<PredicateWriter.Content, PredicateWriter.Content> make_regpas_and_dep_list(Pair<ArrayList<PasSegment>, TripIndex> pas_segments, GtfsTable trips, HashMap<String, String> old_to_new_day_code, HashMap<Integer, String> stat_ids, boolean legacy_order, FeedSymbols ids) {
+        var event = BuilderEvent.begin("make_regpas_and_dep_list");
+        // The unique segments are already in seg_id order, as they are kept in the order they were first seen
+        var no_dup = new ArrayList<>(pas_segments.getLeft());
+        if (legacy_order) {
+            // The order the passes4 blocks had when sorted as text,
+            // which is the order of their seg_ids as text since every block starts with the seg_id
+            no_dup.sort((a, b) -> compare_as_text(a.getSeg_id(), b.getSeg_id()));
         }
 
-        ArrayList<String> pas_list = new ArrayList<>();
+        var dep_list = make_regdep_list(trips, pas_segments.getRight(), old_to_new_day_code, legacy_order, ids);
 
-        // making the regpas.pl elements and store them in array list
-        for (PasSegment segment :
-                no_dup) {
-            pas_list.add(segment.toString());
-            pas_list.add("ntourstops(" + segment.getSeg_id() + ", " + segment.getPasses().size() + ").");
-        }
+        // the departures are in the event of make_regdep_list
+        event.finish(no_dup.size(), no_dup.size());
+        return Pair.of(regpas_content(no_dup, stat_ids), dep_list);
+    }
 
-        pas_list.sort(null);
+    /**
+     * The regpas.pl elements, written straight into the output file as each segment is reached.
+     * Every segment is a block of passes4 lines with an empty line in front, followed by one ntourstops line per segment.
+     *
+     * @param segments unique segments in the order they are written
+     * @param stat_ids stop_id to stat_id mappings
+     * @return content of regpas.pl
+     */
+    private static PredicateWriter.Content regpas_content(List<PasSegment> segments, HashMap<Integer, String> stat_ids) {
+        return out -> {
+            if (segments.isEmpty())
+                return;
+            // The stat name of every stored stop is looked up once, not for every line
+            var stat_names = segments.get(0).getStore().stat_names(stat_ids);
+            for (PasSegment segment : segments) {
+                segment.write_to(out, stat_names);
+                out.end_line();
+            }
+            for (PasSegment segment : segments) {
+                out.append("ntourstops(").append(segment.getSeg_id()).append(", ").append(segment.size()).append(").").end_line();
+            }
+        };
+    }
 
-        ArrayList<String> dep_list = new ArrayList<>();
-        // index of each trip should correspond to each index in all_passes
-        //var index = 0;
+    /**
+     * Joins every trip to its segment and first departure through the trip_id index, one lookup per trip.
+     * The facts are sorted on their parts and only formatted when they are written.
+     *
+     * @param trips      the trips.txt table
+     * @param trip_index trip handle to seg_id and first departure time
+     * @param old_to_new_day_code list of altered dko's
+     * @param legacy_order sort the facts as text
+     * @param ids        the ids of the feed
+     * @return content of regdep.pl
+     */
+    private static PredicateWriter.Content make_regdep_list(GtfsTable trips, TripIndex trip_index, HashMap<String, String> old_to_new_day_code, boolean legacy_order, FeedSymbols ids) {
+        var event = BuilderEvent.begin("make_regdep_list");
+        var dep_set = new LinkedHashSet<DepartureDay>();
+        var trip_handles = ids.trips(trips, "trip_id");
+        var lines = ids.lines(trip_handles);
+        var hashes = ids.trip_hashes(trip_handles);
+        var day_codes = ids.day_codes(ids.services(trips, "service_id"));
         // making the regdep.pl elements
-        for (CSVRecord trip :
-                trips) {
-            var trip_id_parts = trip.get("trip_id").split(":")[2].split("_");
-            var segment = find(all_passes, trip.get("trip_id"));
-            var dep_time_parts = segment.getPasses().get(0).getDeparture_time().split(":");
-            var dep_time = Integer.parseInt(dep_time_parts[0] + dep_time_parts[1]);
-            var day_code = trip.get("service_id").split(":")[2].replaceAll("_","");
+        for (int row = 0; row < trip_handles.length; row++) {
+            var trip = trip_handles[row];
+            if (!trip_index.contains(trip))
+                throw new IllegalStateException("Trip " + ids.trip_id(trip) + " has no stop times");
+            var dep_time = GtfsTime.hhmm(trip_index.departure(trip));
+            var day_code = day_codes[row];
             // Replacing daycode with the new one
             if (old_to_new_day_code.containsKey(day_code))
                 day_code = old_to_new_day_code.get(day_code);
 
-            var temp = "departureday( bus_" + trip_id_parts[0] + "_" + Math.abs(trip.get("trip_id").hashCode()) + ", " + trip_seg_mapping.get(trip.get("trip_id")) + ", " + dep_time + ", " + day_code + ").";
-
-            if (!dep_list.contains(temp)) {
-                dep_list.add(temp);
-            }
-            //index++;
+            dep_set.add(new DepartureDay(lines[row], hashes[row], trip_index.seg_id(trip), dep_time, day_code));
         }
 
-        dep_list.sort(null);
-        pas_list.sort(null);
-
-        return Pair.of(pas_list, dep_list);
-    }
-
-    /**
-     * Prints out the predicates to prolog files
-     * @param predicates a list of predicates represented as strings
-     * @param file the path to the file to be written
-     */
-    private static void predicate_printer(ArrayList<String> predicates, String file) {
-        try {
-            var out_file = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8));
-
-            out_file.write("/* -*- Mode:Prolog; coding:utf-8; -*- */\n");
-
-            for (String predicate : predicates) {
-                out_file.write(predicate + "\n");
+        PredicateWriter.Content content;
+        if (legacy_order) {
+            var dep_list = new String[dep_set.size()];
+            var index = 0;
+            for (DepartureDay fact : dep_set) {
+                dep_list[index++] = fact.toString();
             }
-            out_file.close();
-        } catch (IOException e) {
-            System.out.println("******** IOException " + e);
-            e.printStackTrace();
+            Arrays.parallelSort(dep_list);
+            content = PredicateWriter.Content.of(Arrays.asList(dep_list));
+        } else {
+            var dep_list = dep_set.toArray(new DepartureDay[0]);
+            Arrays.parallelSort(dep_list, DepartureDay.BY_KEY);
+            content = out -> {
+                for (DepartureDay fact : dep_list) {
+                    fact.write_to(out);
+                }
+            };
         }
+        PhaseMetrics.count("departures_out", dep_set.size());
+        event.finish(trips.size(), dep_set.size());
+
+        return content;
     }
 
     /**
@@ -523,7 +555,7 @@ public class GTFS_ToBussTUC {
      * @param comment An update comment if provided
      * @param path path to version.pl in busstuc
      */
-    private static void version_update(String comment, String path) {
+    static synchronized void version_update(String comment, String path) {
         String data = "/* -*- Mode:Prolog; coding:utf-8; -*- */\n"
                 +"%% Generated by " + GTFS_ToBussTUC.class + " on "+new Timestamp(new Date().getTime())+"\n"
                 +"%% FILE version.pl\n"
@@ -548,28 +580,56 @@ public class GTFS_ToBussTUC {
 
     /* Helper Functions after this line */
 
-    private static PasSegment find(ArrayList<PasSegment> all_passes, String trip_id) {
-        for (PasSegment pas :
-                all_passes) {
-            if (trip_id.equals(pas.getTrip_id()))
-                return pas;
+    /**
+     * Keeps the segment if it is unique, and indexes its trip with the seg_id of the segment that is kept
+     *
+     * @param segment        the finished pending segment of a trip, rolled back from the store if it is a duplicate
+     * @param trip           handle of the trip the segment belongs to
+     * @param trip_departure departure from the first stop in minutes since midnight
+     * @param no_dup         the unique segments so far, in the order they were first seen
+     * @param pattern_index  the unique segments so far mapped to their seg_id
+     * @param trip_index     trip handle to seg_id and departure time from the first stop
+     */
+    private static void add_segment(PasSegment segment, int trip, int trip_departure, ArrayList<PasSegment> no_dup, HashMap<PasSegment, Integer> pattern_index, TripIndex trip_index) {
+        // the first segment of a pattern keeps its seg_id, later equal segments reuse it
+        var seg_id = pattern_index.putIfAbsent(segment, segment.getSeg_id());
+        if (seg_id == null) {
+            no_dup.add(segment);
+            seg_id = segment.getSeg_id();
+        } else {
+            segment.getStore().rollback();
         }
-
-        return null;
+        trip_index.put(trip, seg_id, trip_departure);
     }
 
     /**
-     * @param segment segment to check if is not in no_dup
-     * @param no_dup  the list to check against
-     * @return index of the equal segment or -1 to denote it is not in no_dup
+     * Compares two numbers the way their decimal text compares, so 1 < 10 < 2
+     *
+     * @param a a number that is not negative
+     * @param b a number that is not negative
+     * @return less than, equal to or greater than 0 as for String.compareTo
      */
-    private static int is_unique(PasSegment segment, ArrayList<PasSegment> no_dup) {
-        for (PasSegment seg : no_dup) {
-            if (seg.equals(segment))
-                // return index of the equal segment in no_dup, as segment id is 1 higher than index
-                return seg.getSeg_id() - 1;
+    static int compare_as_text(int a, int b) {
+        var a_digits = digits(a);
+        var b_digits = digits(b);
+        // compare the leading digits both numbers have, the shorter number comes first if they are equal
+        var shift = a_digits - b_digits;
+        long a_prefix = a;
+        long b_prefix = b;
+        for (; shift > 0; shift--) a_prefix /= 10;
+        for (; shift < 0; shift++) b_prefix /= 10;
+        if (a_prefix != b_prefix)
+            return a_prefix < b_prefix ? -1 : 1;
+        return Integer.compare(a_digits, b_digits);
+    }
+
+    private static int digits(int number) {
+        var digits = 1;
+        while (number >= 10) {
+            number /= 10;
+            digits++;
         }
-        return -1;
+        return digits;
     }
 
     /**
@@ -613,38 +673,26 @@ public class GTFS_ToBussTUC {
         return org.apache.commons.lang3.StringUtils.leftPad(s, n + s.length(), "0");
     }
 
-    /**
-     * @param str   string to be edited
-     * @param ch    character to input
-     * @param index where to alter the character
-     * @return the new string
-     */
-    public static String replaceCharUsingCharArray(String str, char ch, int index) {
-        char[] chars = str.toCharArray();
-        chars[index] = ch;
-        return String.valueOf(chars);
-    }
-
     /* regcomp helper functions  used from earlier version of GTFS to BussTUC as they cover a good range of rules, that would be tedious to rewrite*/
 
     /**
-     * @param composite_stat_list list to store in
-     * @param record              CSV line to pars
-     * @param hpl_list            HashMap to store stat_ids with stop_id as key
+     * @param composite_stat_list set of composite_stat predicates to store in
+     * @param record              row of stops.txt to pars
+     * @param stop_number         number of the stop, from its stop_id
+     * @param hpl_list            set of hpl predicates to store in
+     * @param stat_ids            HashMap to store stat_ids with stop_id as key
      */
-    public static void setHpl(ArrayList<String> composite_stat_list, CSVRecord record, ArrayList<String> hpl_list, HashMap<Integer, String> stat_ids) {
+    public static void setHpl(PredicateSet composite_stat_list, GtfsTable.Row record, int stop_number, PredicateSet hpl_list, HashMap<Integer, String> stat_ids) {
         String statname = (record.get("stop_name") + " " + record.get("platform_code")).trim().replaceAll("'", "`");
         String statid = conv_statname(statname); // used util function from precious solution as the regex I tried did not work as expected all the time
 
         // store stop_id stat_id pair in hash map
-        stat_ids.put(Integer.valueOf(record.get("stop_id").split(":")[2]), statid);
+        stat_ids.put(stop_number, statid);
 
         ArrayList<String> composite_stat = new ArrayList<>();
         // update hpl_list
-        var hpl = "hpl(" + record.get("stop_id").split(":")[2] + "," + statid + "," + statid + ",'" + statname + "').";
-        if (!hpl_list.contains(hpl)) {
-            hpl_list.add(hpl);
-        }
+        var hpl = "hpl(" + stop_number + "," + statid + "," + statid + ",'" + statname + "').";
+        hpl_list.add(hpl);
         StringTokenizer st = new StringTokenizer(statid, "_");
         String nameOne = "";
         if (st.hasMoreTokens())
@@ -748,9 +796,7 @@ public class GTFS_ToBussTUC {
         }
 
         for (String comp : composite_stat) {
-            if (!composite_stat_list.contains(comp)) {
-                composite_stat_list.add(comp);
-            }
+            composite_stat_list.add(comp);
         }
     }
 
@@ -802,7 +848,7 @@ public class GTFS_ToBussTUC {
      * Test if iStr is denoting a street or not.<br>
      */
     public static boolean isGate(String iStr) {
-        if (gater.contains(iStr))
+        if (GATER.contains(iStr))
             return true;
         return false;
     }
@@ -888,68 +934,3 @@ public class GTFS_ToBussTUC {
         return new IsGateRec("", "", false);
     }
 }
-
-/**
- * Simple helper class to hold the different segments of a trip
- */
-class PasSegment {
-    private int seg_id;
-    private ArrayList<PasHelper> passes;
-    private final String trip_id;
-
-    public PasSegment(int seg_id, ArrayList<PasHelper> passes, String trip_id) {
-        this.seg_id = seg_id;
-        this.passes = passes;
-        this.trip_id = trip_id;
-    }
-
-    public int getSeg_id() {
-        return seg_id;
-    }
-
-    public void setSeg_id(int seg_id) {
-        this.seg_id = seg_id;
-    }
-
-    public ArrayList<PasHelper> getPasses() {
-        return passes;
-    }
-
-    public void setPasses(ArrayList<PasHelper> passes) {
-        this.passes = passes;
-    }
-
-    public boolean contains(PasHelper pas) {
-        return passes.contains(pas);
-    }
-
-    public void add(PasHelper pas) {
-        passes.add(pas);
-    }
-
-
-    @Override
-    public boolean equals(Object obj) {
-        if (obj instanceof PasSegment) {
-            var temp = (PasSegment) obj;
-
-            return this.getPasses().equals(temp.getPasses());
-        }
-
-        return false;
-    }
-
-    public String getTrip_id() {
-        return trip_id;
-    }
-
-    @Override
-    public String toString() {
-        String return_string = "";
-        for (PasHelper pas :
-                passes) {
-            return_string = return_string.concat("\npasses4(" + getSeg_id() + ", " + pas.getId() + ", " + GTFS_ToBussTUC.stat_ids.get(Integer.parseInt(pas.getId())) + ", " + (pas.getSeq() + 1) + ", " + pas.getArr() + ", " + pas.getDep() + ").");
-        }
-        return return_string;
-    }
-}
\ No newline at end of file
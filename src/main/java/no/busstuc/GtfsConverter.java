@@ -0,0 +1,673 @@
+package no.busstuc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+
+import static no.busstuc.GTFS_ToBussTUC.*;
+
+/**
+ * Converts one GTFS feed, a folder or a zip, into the BussTUC route folder, everything it needs is in its {@link ConverterConfig}.
+ * <p>
+ * A converter keeps no state outside itself, so several feeds can be converted at the same time in one JVM,
+ * see {@link #convert_all(List, int)} and {@link #convert_batch(String, List, int, boolean, boolean, String, long, String)}.
+ */
+public class GtfsConverter {
+    // The GTFS files the conversion reads
+    private static final List<String> USED_FILES = List.of("calendar.txt", "calendar_dates.txt", "trips.txt", "stops.txt", "stop_times.txt");
+    // The files each builder makes and the GTFS files it makes them from, regpas and regdep are made from all of them
+    private static final List<String> DKO_INPUTS = List.of("calendar.txt", "calendar_dates.txt");
+    private static final List<String> DKO_OUTPUTS = List.of("regdko.pl");
+    private static final List<String> BUS_INPUTS = List.of("trips.txt");
+    private static final List<String> BUS_OUTPUTS = List.of("regbus.pl");
+    private static final List<String> COMP_INPUTS = List.of("stops.txt");
+    private static final List<String> COMP_OUTPUTS = List.of("regcomp.pl", "reghpl.pl");
+    private static final List<String> PAS_AND_DEP_OUTPUTS = List.of("regpas.pl", "regdep.pl");
+    private static final List<String> ALL_OUTPUTS = List.of("regdko.pl", "regbus.pl", "regcomp.pl", "reghpl.pl", "regpas.pl", "regdep.pl");
+    // every output to the GTFS files it is made from, kept with the output in the manifest
+    private static final Map<String, List<String>> OUTPUT_INPUTS = Map.of("regdko.pl", DKO_INPUTS, "regbus.pl", BUS_INPUTS,
+            "regcomp.pl", COMP_INPUTS, "reghpl.pl", COMP_INPUTS, "regpas.pl", USED_FILES, "regdep.pl", USED_FILES);
+
+    private final ConverterConfig config;
+    // pool the phases run on, null if the converter makes a pool of its own
+    private final ForkJoinPool pool;
+
+    public GtfsConverter(ConverterConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config what to convert
+     * @param pool   pool to run the phases on, shared with other converters, or null for a pool of its own
+     */
+    public GtfsConverter(ConverterConfig config, ForkJoinPool pool) {
+        this.config = config;
+        this.pool = pool;
+    }
+
+    /**
+     * Converts the feeds at the same time, one thread per feed but never more than max_feeds feeds at once.
+     * Virtual threads are used when the JVM has them, otherwise platform threads.
+     * The phases and file writes of all feeds share one pool the size of the machine, so running feeds take turns on the cores.
+     * A failed feed does not stop the others, it is returned as a failed result.
+     *
+     * @param configs   one config per feed
+     * @param max_feeds the most feeds converted at the same time
+     * @return the results in the order of the configs
+     */
+    public static List<ConversionResult> convert_all(List<ConverterConfig> configs, int max_feeds) {
+        var executor = new_thread_per_task_executor();
+        var phase_pool = new ForkJoinPool(Math.max(5, Runtime.getRuntime().availableProcessors()));
+        var permits = new Semaphore(Math.max(1, max_feeds));
+        PhaseMetrics.reset_peak_heap();
+        try {
+            var futures = new ArrayList<Future<ConversionResult>>();
+            for (ConverterConfig config : configs) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    var start = System.currentTimeMillis();
+                    try {
+                        return new GtfsConverter(config, phase_pool).convert();
+                    } catch (RuntimeException e) {
+                        var failure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        System.err.println("******** " + config.getAdm_code() + " failed: " + failure);
+                        return ConversionResult.failed(config, failure, System.currentTimeMillis() - start);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            var results = new ArrayList<ConversionResult>();
+            for (Future<ConversionResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new CompletionException(e.getCause());
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } finally {
+            executor.shutdown();
+            phase_pool.shutdown();
+        }
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task on JVMs that have them, a cached thread pool otherwise
+     */
+    static ExecutorService new_thread_per_task_executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Converts several feeds into the same output folder, then adds all their route periods
+     * to route_period.pl in one pass, prints the time of every feed and writes batch.report.json in the output folder
+     *
+     * @param out_folder folder the route folders are created in
+     * @param feeds      input folder and admin code of every feed
+     * @param max_feeds  the most feeds converted at the same time
+     * @param legacy_order sort regpas.pl and regdep.pl as text
+     * @param incremental  only make the files whose GTFS files changed since the last run
+     * @param snapshot_dir folder to keep the parsed GTFS files in between runs, or null
+     * @param sort_memory  bytes used to sort a stop_times.txt that is not grouped by trip
+     * @param sort_dir     folder the sort spills to
+     * @return the results in the order of the feeds
+     */
+    public static List<ConversionResult> convert_batch(String out_folder, List<Pair<String, String>> feeds, int max_feeds, boolean legacy_order, boolean incremental, String snapshot_dir, long sort_memory, String sort_dir) {
+        var start = System.currentTimeMillis();
+        var configs = new ArrayList<ConverterConfig>();
+        for (Pair<String, String> feed : feeds) {
+            var config = new ConverterConfig(feed.getLeft(), out_folder);
+            config.setAdm_code(feed.getRight());
+            config.setLegacy_order(legacy_order);
+            config.setIncremental(incremental);
+            config.setSnapshot_dir(snapshot_dir);
+            config.setSort_memory(sort_memory);
+            config.setSort_dir(sort_dir);
+            config.setUpdate_route_period(false);
+            configs.add(config);
+        }
+        var results = convert_all(configs, max_feeds);
+        var steps = update_route_periods(results);
+        var elapsed_msec = System.currentTimeMillis() - start;
+        print_summary(results, elapsed_msec);
+        var report_path = Paths.get(out_folder, "batch.report.json");
+        try {
+            RunReport.write(report_path, results, steps, elapsed_msec);
+        } catch (IOException e) {
+            System.err.println("Could not write " + report_path + ": " + e);
+        }
+        return results;
+    }
+
+    /**
+     * Prints the time and period of every feed, its slowest phase, and the totals
+     *
+     * @param results results of the feeds
+     * @param wall_msec time the whole batch took
+     */
+    static void print_summary(List<ConversionResult> results, long wall_msec) {
+        System.out.println("**********************************************************************");
+        System.out.println("Batch summary:");
+        var failed = 0;
+        var feed_msec = 0L;
+        for (ConversionResult result : results) {
+            feed_msec += result.getElapsed_msec();
+            if (result.isFailed()) {
+                failed++;
+                System.out.println(String.format("  %-8s FAILED after %7d msec  %s: %s", result.getAdm_code(), result.getElapsed_msec(), result.getConfig().getData_path(), result.getFailure()));
+                continue;
+            }
+            String slowest = null;
+            for (var phase : result.getPhase_msec().entrySet()) {
+                if (slowest == null || phase.getValue() > result.getPhase_msec().get(slowest)) {
+                    slowest = phase.getKey();
+                }
+            }
+            System.out.println(String.format("  %-8s %s - %s %7d msec, slowest phase %s (%d msec)  %s", result.getAdm_code(),
+                    result.getStarting_date().format(OUT_FORMAT), result.getEnding_date().format(OUT_FORMAT), result.getElapsed_msec(),
+                    slowest, slowest == null ? 0 : result.getPhase_msec().get(slowest), result.getConfig().getData_path()));
+        }
+        System.out.println(results.size() + " feeds, " + failed + " failed, " + wall_msec + " msec in all, "
+                + feed_msec + " msec summed over the feeds");
+    }
+
+    public ConverterConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Reads the feed, writes the six predicate files into a new route folder and,
+     * if the config asks for it, updates route_period.pl and version.pl.
+     * What every phase cost is written as a {@link RunReport} next to the route folder.
+     *
+     * @return the route folder and period of the conversion
+     * @throws CompletionException if a phase of the conversion failed
+     */
+    public ConversionResult convert() {
+        var start_time = System.currentTimeMillis();
+        var separator = File.separator;
+        if (pool == null) {
+            // the heap is not shared with other conversions
+            PhaseMetrics.reset_peak_heap();
+        }
+
+        GtfsFeed feed;
+        try {
+            feed = GtfsFeed.open(config.getData_path());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (String name : feed.names()) {
+            if (!USED_FILES.contains(name)) {
+                System.out.println(config.getData_path() + separator + name + " not used");
+            }
+        }
+
+        // The fingerprints are taken while calendar.txt is read for the period, which names the route folder.
+        // With a snapshot folder the files are only read once the fingerprints tell which snapshot they are in.
+        var ids = new FeedSymbols();
+        var graph = pool == null ? new PhaseGraph(Math.max(5, Runtime.getRuntime().availableProcessors())) : new PhaseGraph(pool);
+        var fingerprint_phase = graph.add("fingerprint inputs", () -> fingerprint(feed));
+        var snapshot_phase = config.getSnapshot_dir() == null ? null
+                : graph.add("open snapshot", () -> open_snapshot(fingerprint_phase.get()), fingerprint_phase);
+        var snapshot_inputs = snapshot_phase == null ? new PhaseGraph.Phase<?>[0] : new PhaseGraph.Phase<?>[]{snapshot_phase};
+        var calendar_csv = graph.add("read calendar.txt", () -> read_table(feed, snapshot_phase, "calendar.txt", CALENDAR_COLUMNS), snapshot_inputs);
+        var validity = graph.add("validity", () -> get_validity(calendar_csv.get()), calendar_csv);
+
+        LocalDate starting_date;
+        Map<String, String> fingerprints;
+        try {
+            starting_date = validity.get().getLeft();
+            fingerprints = fingerprint_phase.get();
+        } catch (RuntimeException e) {
+            close(graph, feed);
+            throw e;
+        }
+        var ending_date = validity.get().getRight();
+        var dir_name = config.getAdm_code() + "_" + starting_date.format(OUT_FORMAT);
+        File newDir = new File(config.getOut_folder() + separator + dir_name);
+        var manifest_path = Paths.get(config.getOut_folder(), dir_name + ".manifest");
+        var settings = "legacy_order=" + config.isLegacy_order();
+        var old_manifest = load_manifest(manifest_path);
+        var rebuild = !config.isIncremental() || !settings.equals(old_manifest.getSettings());
+
+        // A builder only runs when one of its inputs or outputs changed, or a builder that needs its result runs
+        var dir = newDir.toPath();
+        var run_dko = rebuild || old_manifest.is_stale(fingerprints, dir, DKO_INPUTS, DKO_OUTPUTS);
+        var run_bus = rebuild || old_manifest.is_stale(fingerprints, dir, BUS_INPUTS, BUS_OUTPUTS);
+        var run_comp = rebuild || old_manifest.is_stale(fingerprints, dir, COMP_INPUTS, COMP_OUTPUTS);
+        var run_pas_and_dep = rebuild || old_manifest.is_stale(fingerprints, dir, USED_FILES, PAS_AND_DEP_OUTPUTS);
+
+        // The files do not depend on each other and are read at the same time,
+        // and each builder starts as soon as the phases it takes data from are done
+        var calendar_dates_csv = run_dko || run_pas_and_dep ? graph.add("read calendar_dates.txt", () -> read_table(feed, snapshot_phase, "calendar_dates.txt", CALENDAR_DATES_COLUMNS), snapshot_inputs) : null;
+        var trips_csv = run_bus || run_pas_and_dep ? graph.add("read trips.txt", () -> read_table(feed, snapshot_phase, "trips.txt", TRIPS_COLUMNS), snapshot_inputs) : null;
+        var stops_csv = run_comp || run_pas_and_dep ? graph.add("read stops.txt", () -> read_table(feed, snapshot_phase, "stops.txt", STOPS_COLUMNS), snapshot_inputs) : null;
+        var pas_segments = run_pas_and_dep ? graph.add("read stop_times.txt", () -> read_stop_times(feed, snapshot_phase, ids), snapshot_inputs) : null;
+        // A snapshot is only written when every file was parsed, it is not made of the files an incremental run skipped
+        if (snapshot_phase != null && run_pas_and_dep) {
+            graph.add("write snapshot", () -> {
+                if (snapshot_phase.get() == null) {
+                    write_snapshot(fingerprints, Map.of("calendar.txt", calendar_csv.get(), "calendar_dates.txt", calendar_dates_csv.get(),
+                            "trips.txt", trips_csv.get(), "stops.txt", stops_csv.get()), pas_segments.get(), ids);
+                }
+                return null;
+            }, snapshot_phase, calendar_csv, calendar_dates_csv, trips_csv, stops_csv, pas_segments);
+        }
+
+        var dko_phase = run_dko || run_pas_and_dep ? graph.add("regdko", () -> {
+            System.out.println("\nParsing calendar.txt and calendar_dates.txt to regdko.pl");
+            PhaseMetrics.count("rows_in", calendar_csv.get().size() + calendar_dates_csv.get().size());
+            var result = make_regdko_list(calendar_csv.get(), calendar_dates_csv.get(), starting_date, ids);
+            System.out.println("*** DKO parsing finished");
+            return result;
+        }, calendar_csv, calendar_dates_csv) : null;
+        var bus_phase = run_bus ? graph.add("regbus", () -> {
+            System.out.println("\nParsing to regbus.pl");
+            PhaseMetrics.count("rows_in", trips_csv.get().size());
+            var result = make_regbus_list(trips_csv.get(), ids);
+            PhaseMetrics.count("predicates_out", result.size());
+            System.out.println("*** regbus parsing finished.");
+            return result;
+        }, trips_csv) : null;
+        var comp_phase = run_comp || run_pas_and_dep ? graph.add("regcomp and reghpl", () -> {
+            System.out.println("\nParsing to regcomp and reghpl ...");
+            PhaseMetrics.count("rows_in", stops_csv.get().size());
+            var result = make_regcomp_and_hpl_list(stops_csv.get(), ids);
+            PhaseMetrics.count("regcomp_out", result.getLeft().size());
+            PhaseMetrics.count("reghpl_out", result.getMiddle().size());
+            System.out.println("*** regcomp and reghpl parsing finished.");
+            return result;
+        }, stops_csv) : null;
+        // regpas and regdep need the segments, the trips, the new day codes and the stat_ids.
+        // The phase only joins the trips to their segments and sorts the departures, the lines of both files
+        // are rendered while they are written, so that time is counted as render_msec under "write files".
+        var pas_and_dep_phase = run_pas_and_dep ? graph.add("join regpas and regdep", () -> {
+            System.out.println("\nParsing to regdep and regpas ...");
+            PhaseMetrics.count("segments_in", pas_segments.get().getLeft().size());
+            PhaseMetrics.count("trips_in", trips_csv.get().size());
+            return make_regpas_and_dep_list(pas_segments.get(), trips_csv.get(), dko_phase.get().getRight(), comp_phase.get().getRight(), config.isLegacy_order(), ids);
+        }, pas_segments, trips_csv, dko_phase, comp_phase) : null;
+
+        close(graph, feed);
+        System.out.println("**********************************************************************");
+        graph.print_timings();
+
+        System.out.println("**********************************************************************");
+        System.out.println("Congratulations parsing finished successfully, writing files now ....");
+
+        // the files of the builders that ran are written at the same time
+        var out_files = new LinkedHashMap<String, PredicateWriter.Content>();
+        if (run_dko) {
+            out_files.put("regdko.pl", PredicateWriter.Content.of(dko_phase.get().getLeft()));
+        }
+        if (run_bus) {
+            out_files.put("regbus.pl", PredicateWriter.Content.of(bus_phase.get()));
+        }
+        if (run_comp) {
+            out_files.put("regcomp.pl", PredicateWriter.Content.of(comp_phase.get().getLeft()));
+            out_files.put("reghpl.pl", PredicateWriter.Content.of(comp_phase.get().getMiddle()));
+        }
+        if (run_pas_and_dep) {
+            out_files.put("regpas.pl", pas_and_dep_phase.get().getLeft());
+            out_files.put("regdep.pl", pas_and_dep_phase.get().getRight());
+        }
+        // the feeds of a batch write on the pool their phases share, a single conversion on a pool of its own
+        var write_pool = pool != null ? pool : new ForkJoinPool(ALL_OUTPUTS.size());
+        List<String> changed_files;
+        try {
+            changed_files = graph.run("write files", () -> write_files(newDir, out_files, old_manifest, rebuild, settings, fingerprints, manifest_path, write_pool));
+        } finally {
+            if (write_pool != pool) {
+                write_pool.shutdown();
+            }
+        }
+        System.out.println("Writing finished");
+
+        var phases = graph.metrics();
+        var result = new ConversionResult(config, newDir, starting_date, ending_date, System.currentTimeMillis() - start_time, phases, changed_files);
+        var steps = config.isUpdate_route_period() ? update_route_periods(List.of(result)) : List.<PhaseMetrics>of();
+        var stop_time = System.currentTimeMillis();
+        System.out.println("Elapsed time: " + (stop_time - start_time) + " msec.");
+        result = new ConversionResult(config, newDir, starting_date, ending_date, stop_time - start_time, phases, changed_files);
+
+        var report_path = Paths.get(config.getOut_folder(), dir_name + ".report.json");
+        try {
+            RunReport.write(report_path, List.of(result), steps, stop_time - start_time);
+        } catch (IOException e) {
+            System.err.println("Could not write " + report_path + ": " + e);
+        }
+        return result;
+    }
+
+    /**
+     * @return the manifest of the last run, empty if it can not be read
+     */
+    private static Manifest load_manifest(Path manifest_path) {
+        try {
+            return Manifest.load(manifest_path);
+        } catch (IOException e) {
+            System.err.println("Could not read " + manifest_path + ", making every file: " + e);
+            return new Manifest();
+        }
+    }
+
+    /**
+     * Writes the files of the builders that ran at the same time into the route folder, then the manifest
+     *
+     * @param pool the files are written on it, left running
+     * @return names of the files that changed
+     */
+    private static List<String> write_files(File newDir, LinkedHashMap<String, PredicateWriter.Content> out_files, Manifest old_manifest, boolean rebuild,
+                                     String settings, Map<String, String> fingerprints, Path manifest_path, ExecutorService pool) {
+        var separator = File.separator;
+        if (newDir.mkdir()) {
+            System.out.println(newDir.getAbsolutePath() + " created...");
+        } else {
+            System.err.println("Writing into existing folder");
+        }
+
+        var out_paths = new LinkedHashMap<String, PredicateWriter.Content>();
+        var old_digests = new HashMap<String, String>();
+        // lines written to each file after the header, and the time taken to render them into the file,
+        // counted on the threads that write them
+        var lines = new ConcurrentHashMap<String, Long>();
+        var render_nanos = new ConcurrentHashMap<String, Long>();
+        for (var file : out_files.entrySet()) {
+            var path = newDir.getAbsolutePath() + separator + file.getKey();
+            var content = file.getValue();
+            out_paths.put(path, out -> {
+                var render_start = System.nanoTime();
+                content.write_to(out);
+                render_nanos.put(file.getKey(), System.nanoTime() - render_start);
+                lines.put(file.getKey(), out.getLines_written() - 1);
+            });
+            // a file changed since it was written is replaced even if the new one is as the manifest says
+            if (!rebuild && old_manifest.is_intact(newDir.toPath(), file.getKey())) {
+                old_digests.put(path, old_manifest.getOutputs().get(file.getKey()).getDigest());
+            }
+        }
+        var write_start = System.currentTimeMillis();
+        var written = PredicateWriter.write_changed(out_paths, old_digests, pool);
+
+        var manifest = new Manifest();
+        manifest.setSettings(settings);
+        var changed_files = new ArrayList<String>();
+        for (String name : ALL_OUTPUTS) {
+            var path = newDir.getAbsolutePath() + separator + name;
+            if (!out_files.containsKey(name)) {
+                // not made again, its inputs and the file are as the old manifest says
+                manifest.getOutputs().put(name, old_manifest.getOutputs().get(name));
+            } else if (written.containsKey(path)) {
+                var digest = written.get(path);
+                long size;
+                long modified;
+                try {
+                    size = Files.size(Paths.get(path));
+                    modified = Files.getLastModifiedTime(Paths.get(path)).toMillis();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                manifest.getOutputs().put(name, new Manifest.Output(digest.getLeft(), size, modified, Manifest.inputs_digest(fingerprints, OUTPUT_INPUTS.get(name))));
+                PhaseMetrics.count("lines:" + name, lines.get(name));
+                PhaseMetrics.count("render_msec:" + name, render_nanos.get(name) / 1_000_000);
+                PhaseMetrics.count("bytes:" + name, size);
+                PhaseMetrics.count("predicates_out", lines.get(name));
+                PhaseMetrics.count("bytes_out", size);
+                if (digest.getRight()) {
+                    changed_files.add(name);
+                }
+            }
+            // a file that could not be written is left out, so it is made again the next time
+        }
+        try {
+            manifest.save(manifest_path);
+        } catch (IOException e) {
+            System.err.println("Could not write " + manifest_path + ": " + e);
+        }
+        PhaseMetrics.count("files_written", written.size());
+        PhaseMetrics.count("files_skipped", ALL_OUTPUTS.size() - out_files.size());
+        PhaseMetrics.count("files_changed", changed_files.size());
+        System.out.println("Made " + out_files.size() + " files, " + changed_files.size() + " changed " + changed_files
+                + ", in " + (System.currentTimeMillis() - write_start) + " msec.");
+        return changed_files;
+    }
+
+    /**
+     * Adds the periods of the results to route_period.pl two folders above their route folders, one pass per file,
+     * and updates version.pl one folder above that. Failed results, and results where no file changed, are left out.
+     *
+     * @return the metrics of updating route_period.pl and of updating version.pl, none if nothing was updated
+     */
+    public static List<PhaseMetrics> update_route_periods(List<ConversionResult> results) {
+        var origin = System.nanoTime();
+        var separator = File.separator;
+        var periods = new LinkedHashMap<String, List<Triple<String, String, String>>>();
+        var version_paths = new LinkedHashSet<String>();
+        for (ConversionResult result : results) {
+            if (result.isFailed() || result.getChanged_files().isEmpty()) {
+                continue;
+            }
+            var tables = result.getOut_dir().toPath().toAbsolutePath().getParent();
+            periods.computeIfAbsent(tables.getParent().toString() + separator + "route_period.pl", path -> new ArrayList<>())
+                    .add(Triple.of(result.getAdm_code(), result.getStarting_date().format(OUT_FORMAT), result.getEnding_date().format(OUT_FORMAT)));
+            version_paths.add(tables.getParent().getParent().toString() + separator + "version.pl");
+        }
+
+        if (periods.isEmpty()) {
+            System.out.println("\nNo files changed, route_period.pl and version.pl are left as they are");
+            return List.of();
+        }
+        System.out.println("\nUpdating routes ....");
+        var route_period_step = PhaseMetrics.start("route periods", origin);
+        try {
+            for (var route_period : periods.entrySet()) {
+                UpdateRoutePeriode.updateRoutePeriods("Auto Update: " + LocalDate.now(), route_period.getValue(), route_period.getKey());
+                PhaseMetrics.count("periods", route_period.getValue().size());
+                PhaseMetrics.count("files", 1);
+            }
+        } finally {
+            route_period_step.stop();
+        }
+        System.out.println("Route Periods updated ... ");
+
+        System.out.println("\nUpdating version.pl ... ");
+        var version_step = PhaseMetrics.start("version", origin);
+        try {
+            for (String version_pl_path : version_paths) {
+                version_update("Automatic update", version_pl_path);
+                PhaseMetrics.count("files", 1);
+            }
+        } finally {
+            version_step.stop();
+        }
+        return List.of(route_period_step, version_step);
+    }
+
+    /**
+     * Waits for the phases, then closes the feed
+     */
+    private static void close(PhaseGraph graph, GtfsFeed feed) {
+        try {
+            graph.join();
+        } finally {
+            try {
+                feed.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return file name to fingerprint of each of the GTFS files the conversion reads
+     */
+    private Map<String, String> fingerprint(GtfsFeed feed) {
+        var fingerprints = new HashMap<String, String>();
+        for (String name : USED_FILES) {
+            if (!feed.contains(name)) {
+                throw new IllegalStateException(name + " not found in " + config.getData_path());
+            }
+            try {
+                fingerprints.put(name, feed.fingerprint(name));
+                PhaseMetrics.count("files", 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * @return the snapshot of the GTFS files, null if there is none yet
+     */
+    private FeedSnapshot open_snapshot(Map<String, String> fingerprints) {
+        var path = FeedSnapshot.path(Paths.get(config.getSnapshot_dir()), config.getAdm_code(), fingerprints);
+        try {
+            var snapshot = FeedSnapshot.open(path);
+            System.out.println(snapshot == null ? "No snapshot " + path + ", parsing the GTFS files" : "Reading the GTFS files from " + path);
+            return snapshot;
+        } catch (IOException e) {
+            System.err.println("Could not read " + path + ", parsing the GTFS files: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the parsed files as the snapshot of their fingerprints and removes the older snapshots of the feed.
+     * A snapshot that can not be written only costs the next run a parse, so the conversion goes on.
+     */
+    private void write_snapshot(Map<String, String> fingerprints, Map<String, GtfsTable> tables, Pair<ArrayList<PasSegment>, TripIndex> pas_segments, FeedSymbols ids) {
+        var dir = Paths.get(config.getSnapshot_dir());
+        var path = FeedSnapshot.path(dir, config.getAdm_code(), fingerprints);
+        var start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(dir);
+            FeedSnapshot.write(path, new TreeMap<>(tables), pas_segments, ids);
+            try (var old_snapshots = Files.newDirectoryStream(dir, config.getAdm_code() + "-*.snapshot")) {
+                for (Path old_snapshot : old_snapshots) {
+                    if (!old_snapshot.equals(path)) {
+                        Files.deleteIfExists(old_snapshot);
+                    }
+                }
+            }
+            System.out.println("Wrote snapshot " + path + ": " + Files.size(path) + " bytes in " + (System.currentTimeMillis() - start) + " msec.");
+        } catch (IOException e) {
+            System.err.println("Could not write snapshot " + path + ": " + e);
+        }
+    }
+
+    /**
+     * Reads the columns the builders use from one of the smaller GTFS files, from the snapshot if there is one
+     *
+     * @param feed     the feed to read from
+     * @param snapshot the phase that opened the snapshot, null if snapshots are not used
+     * @param name     name of the GTFS file
+     * @param columns  the columns to read
+     * @return the table of the file
+     */
+    private GtfsTable read_table(GtfsFeed feed, PhaseGraph.Phase<FeedSnapshot> snapshot, String name, String... columns) {
+        var start = System.currentTimeMillis();
+        if (snapshot != null && snapshot.get() != null) {
+            var table = snapshot.get().table(name);
+            if (table != null) {
+                System.out.println("Read " + name + " from snapshot: " + table.size() + " rows in " + (System.currentTimeMillis() - start) + " msec.");
+                PhaseMetrics.count("rows", table.size());
+                return table;
+            }
+        }
+        if (!feed.contains(name)) {
+            throw new IllegalStateException(name + " not found in " + config.getData_path());
+        }
+        try (var reader = feed.csv_reader(name, columns)) {
+            var table = GtfsTable.read(reader, columns);
+            System.out.println("Read " + name + ": " + table.size() + " rows in " + (System.currentTimeMillis() - start) + " msec.");
+            PhaseMetrics.count("rows", table.size());
+            return table;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Streams stop_times.txt into trip segments, it is by far the largest file so its records are never kept.
+     * A file that is not grouped by trip in stop_sequence order is sorted within the sort memory of the config and read again.
+     *
+     * @param feed     the feed to read from
+     * @param snapshot the phase that opened the snapshot, null if snapshots are not used
+     * @param ids      the ids of the feed
+     * @return pair of the unique segments and the trip index
+     */
+    private Pair<ArrayList<PasSegment>, TripIndex> read_stop_times(GtfsFeed feed, PhaseGraph.Phase<FeedSnapshot> snapshot, FeedSymbols ids) {
+        var start = System.currentTimeMillis();
+        if (snapshot != null && snapshot.get() != null) {
+            var pas_segments = snapshot.get().pas_segments(ids);
+            if (pas_segments != null) {
+                System.out.println("Read stop_times.txt from snapshot: " + pas_segments.getLeft().size() + " unique segments in " + (System.currentTimeMillis() - start) + " msec.");
+                PhaseMetrics.count("unique_segments", pas_segments.getLeft().size());
+                PhaseMetrics.count("trips", pas_segments.getRight().size());
+                return pas_segments;
+            }
+        }
+        if (!feed.contains("stop_times.txt")) {
+            throw new IllegalStateException("stop_times.txt not found in " + config.getData_path());
+        }
+        try {
+            Pair<ArrayList<PasSegment>, TripIndex> pas_segments;
+            long rows;
+            try (var reader = feed.csv_reader("stop_times.txt", STOP_TIMES_COLUMNS)) {
+                pas_segments = make_pas_segments(reader, ids);
+                rows = reader.getRows();
+            } catch (StopTimesOrderException e) {
+                System.out.println("stop_times.txt is not sorted, " + e.getMessage() + ", sorting it in " + config.getSort_memory() + " bytes of memory");
+                Path sorted;
+                try (var reader = feed.csv_reader("stop_times.txt", STOP_TIMES_COLUMNS)) {
+                    sorted = new StopTimesSorter(config.getSort_memory(), Files.createDirectories(Paths.get(config.getSort_dir()))).sort(reader);
+                    rows = reader.getRows();
+                }
+                try (var reader = GtfsCsvReader.open(sorted, STOP_TIMES_COLUMNS)) {
+                    pas_segments = make_pas_segments(reader, ids);
+                } finally {
+                    Files.deleteIfExists(sorted);
+                }
+            }
+            System.out.println("Read stop_times.txt: " + rows + " rows into " + pas_segments.getLeft().size() + " unique segments in " + (System.currentTimeMillis() - start) + " msec.");
+            PhaseMetrics.count("rows", rows);
+            PhaseMetrics.count("unique_segments", pas_segments.getLeft().size());
+            PhaseMetrics.count("trips", pas_segments.getRight().size());
+            return pas_segments;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package no.busstuc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A reader for GTFS text files that only looks at the columns it is asked for.
+ * <p>
+ * The file is memory mapped, or read through a buffer when it comes as a stream such as a compressed zip entry.
+ * The column indexes are resolved once from the header, and each row is only
+ * scanned for where its fields start and end. The projected fields of the current row can then be read
+ * as a {@link CharSequence} over the mapped bytes, as a String, or as a parsed int, without any per-row
+ * String[] being made. Quoted fields with commas, line breaks and doubled quotes are handled as in GTFS.
+ * <p>
+ * Values returned by {@link #get(int)} are only valid until the next call to {@link #next()}.
+ */
+public class GtfsCsvReader implements Closeable {
+    // Size of each mapped part of the file, a row is never longer than this
+    private static final long WINDOW_SIZE = 1L << 28;
+    // Size of the buffer a stream is read into, a row of a stream is never longer than this
+    private static final int STREAM_WINDOW_SIZE = 1 << 20;
+
+    // The file that is mapped, null when reading a stream
+    private final FileChannel channel;
+    // Where the text starts in the mapped file, and its length
+    private final long file_offset;
+    private final long file_size;
+    // The stream that is read when nothing is mapped, and whether it has been read to the end
+    private final ReadableByteChannel stream;
+    private boolean stream_ended;
+    // Where in the file the current window starts
+    private long window_start;
+    private ByteBuffer buffer;
+    // Position in the current window where the next row starts
+    private int position;
+
+    // For each column in the file, which projected slot it goes into or -1 if it is not needed
+    private int[] column_to_slot;
+    private final String[] columns;
+    private final int[] starts;
+    private final int[] ends;
+    private final boolean[] escaped;
+    private final Slice[] slices;
+    private long rows;
+    // flight recorder event of the read, committed when the reader is closed
+    private final FileReadEvent event = new FileReadEvent();
+
+    /**
+     * Opens a GTFS file and reads its header
+     *
+     * @param file    path to the file
+     * @param columns the columns to read, their order decides the index used in the get methods
+     * @return a reader positioned before the first row
+     * @throws IOException              if the file can not be read
+     * @throws IllegalArgumentException if one of the columns is not in the header
+     */
+    public static GtfsCsvReader open(Path file, String... columns) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        GtfsCsvReader reader;
+        try {
+            reader = new GtfsCsvReader(channel, 0, channel.size(), null, columns);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        reader.event.file = file.toString();
+        return open(reader);
+    }
+
+    /**
+     * Opens a GTFS file that is a part of a larger file, such as an uncompressed entry in a zip, and maps only that part
+     *
+     * @param file    path to the larger file
+     * @param offset  where the GTFS file starts
+     * @param length  length of the GTFS file
+     * @param columns the columns to read, their order decides the index used in the get methods
+     * @return a reader positioned before the first row
+     * @throws IOException              if the file can not be read
+     * @throws IllegalArgumentException if one of the columns is not in the header
+     */
+    public static GtfsCsvReader open(Path file, long offset, long length, String... columns) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        GtfsCsvReader reader;
+        try {
+            reader = new GtfsCsvReader(channel, offset, length, null, columns);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        reader.event.file = file + "@" + offset;
+        return open(reader);
+    }
+
+    /**
+     * Opens a GTFS file that can only be read from start to end, such as a compressed entry in a zip
+     *
+     * @param in      the file, closed when the reader is closed
+     * @param columns the columns to read, their order decides the index used in the get methods
+     * @return a reader positioned before the first row
+     * @throws IOException              if the file can not be read
+     * @throws IllegalArgumentException if one of the columns is not in the header
+     */
+    public static GtfsCsvReader open(InputStream in, String... columns) throws IOException {
+        return open(new GtfsCsvReader(null, 0, -1, Channels.newChannel(in), columns));
+    }
+
+    private static GtfsCsvReader open(GtfsCsvReader reader) throws IOException {
+        try {
+            reader.read_header();
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    private GtfsCsvReader(FileChannel channel, long file_offset, long file_size, ReadableByteChannel stream, String[] columns) throws IOException {
+        event.begin();
+        this.channel = channel;
+        this.file_offset = file_offset;
+        this.file_size = file_size;
+        this.stream = stream;
+        this.columns = columns;
+        this.starts = new int[columns.length];
+        this.ends = new int[columns.length];
+        this.escaped = new boolean[columns.length];
+        this.slices = new Slice[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            slices[i] = new Slice(i);
+        }
+        if (stream == null) {
+            map(0);
+        } else {
+            buffer = ByteBuffer.allocate(STREAM_WINDOW_SIZE).flip();
+            refill();
+        }
+    }
+
+    private void read_header() throws IOException {
+        // Skip the UTF-8 byte order mark some exporters put in front of the header
+        if (buffer.limit() >= 3 && (buffer.get(0) & 0xff) == 0xEF && (buffer.get(1) & 0xff) == 0xBB && (buffer.get(2) & 0xff) == 0xBF) {
+            position = 3;
+        }
+        var header = new ArrayList<String>();
+        column_to_slot = new int[0];
+        if (!scan_row(header)) {
+            throw new IOException("Missing header");
+        }
+        column_to_slot = new int[header.size()];
+        Arrays.fill(column_to_slot, -1);
+        for (int slot = 0; slot < columns.length; slot++) {
+            var index = header.indexOf(columns[slot]);
+            if (index == -1) {
+                throw new IllegalArgumentException("Mapping for " + columns[slot] + " not found, expected one of " + header);
+            }
+            column_to_slot[index] = slot;
+        }
+    }
+
+    /**
+     * Moves on to the next row
+     *
+     * @return false when there are no more rows
+     * @throws IOException if the file can not be read
+     */
+    public boolean next() throws IOException {
+        if (scan_row(null)) {
+            rows++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of rows read so far, not counting the header
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @param slot index of the column in the order given to open
+     * @return the field as a view of the mapped bytes, only valid until next is called.
+     * Characters outside ASCII are not decoded, use getString for text such as stop names.
+     */
+    public CharSequence get(int slot) {
+        if (escaped[slot]) {
+            return getString(slot);
+        }
+        return slices[slot];
+    }
+
+    /**
+     * @param slot index of the column in the order given to open
+     * @return the field decoded as UTF-8
+     */
+    public String getString(int slot) {
+        var length = ends[slot] - starts[slot];
+        var bytes = new byte[length];
+        buffer.get(starts[slot], bytes);
+        var value = new String(bytes, StandardCharsets.UTF_8);
+        if (escaped[slot]) {
+            value = value.replace("\"\"", "\"");
+        }
+        return value;
+    }
+
+    /**
+     * @param slot index of the column in the order given to open
+     * @return the field as UTF-8 bytes, to be compared with later rows by {@link #equals(int, byte[])}
+     */
+    public byte[] getBytes(int slot) {
+        if (escaped[slot]) {
+            return getString(slot).getBytes(StandardCharsets.UTF_8);
+        }
+        var bytes = new byte[ends[slot] - starts[slot]];
+        buffer.get(starts[slot], bytes);
+        return bytes;
+    }
+
+    /**
+     * Compares the field with UTF-8 bytes without decoding it, so it also works for text outside ASCII
+     *
+     * @param slot  index of the column in the order given to open
+     * @param value bytes from {@link #getBytes(int)}
+     * @return true if the field is the same text
+     */
+    public boolean equals(int slot, byte[] value) {
+        if (escaped[slot]) {
+            return Arrays.equals(getBytes(slot), value);
+        }
+        var start = starts[slot];
+        if (ends[slot] - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (buffer.get(start + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param slot index of the column in the order given to open
+     * @return the field parsed as an int
+     * @throws NumberFormatException if the field is not a whole number or does not fit in an int
+     */
+    public int getInt(int slot) {
+        var start = starts[slot];
+        var end = ends[slot];
+        if (start == end) {
+            throw new NumberFormatException("Empty value in column " + columns[slot]);
+        }
+        var negative = buffer.get(start) == '-';
+        if (negative) {
+            start++;
+        }
+        // at most 10 digits, which always fit in a long, so the range is checked once at the end
+        if (start == end || end - start > 10) {
+            throw new NumberFormatException("For input string: \"" + getString(slot) + "\" in column " + columns[slot]);
+        }
+        var value = 0L;
+        for (int i = start; i < end; i++) {
+            var digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + getString(slot) + "\" in column " + columns[slot]);
+            }
+            value = value * 10 + digit;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value != (int) value) {
+            throw new NumberFormatException("For input string: \"" + getString(slot) + "\" in column " + columns[slot] + " is out of the int range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * @param slot index of the column in the order given to open
+     * @return true if the field is empty in the current row
+     */
+    public boolean isEmpty(int slot) {
+        return starts[slot] == ends[slot];
+    }
+
+    /**
+     * @param name what the file is called in the flight recorder, such as the name of a zip entry
+     */
+    void setName(String name) {
+        event.file = name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.rows = rows;
+                event.bytes = window_start + position;
+                event.commit();
+            }
+        }
+        buffer = null;
+        if (channel != null) {
+            channel.close();
+        } else {
+            stream.close();
+        }
+    }
+
+    /**
+     * Finds the fields of the next row. Empty lines are skipped.
+     *
+     * @param header if not null every field is added to it as a String, used for the header row
+     * @return false at the end of the file
+     */
+    private boolean scan_row(ArrayList<String> header) throws IOException {
+        while (true) {
+            var result = scan_row_in_window(header);
+            if (result > 0) {
+                return true;
+            }
+            if (result < 0) {
+                return false;
+            }
+            // The row runs past the end of the window, move the window to start at the row
+            var window_size = channel != null ? WINDOW_SIZE : buffer.capacity();
+            if (position == 0 && buffer.limit() >= window_size) {
+                throw new IOException("Row longer than " + window_size + " bytes at offset " + window_start);
+            }
+            if (header != null) {
+                header.clear();
+            }
+            if (channel != null) {
+                map(window_start + position);
+            } else {
+                refill();
+            }
+        }
+    }
+
+    /**
+     * @return 1 if a row was found, -1 at the end of the file, 0 if the row is cut by the end of the window
+     */
+    private int scan_row_in_window(ArrayList<String> header) {
+        var limit = buffer.limit();
+        var at_end_of_file = channel != null ? window_start + limit >= file_size : stream_ended;
+        var i = position;
+
+        // skip empty lines
+        while (i < limit && (buffer.get(i) == '\n' || buffer.get(i) == '\r')) {
+            i++;
+        }
+        if (i >= limit) {
+            position = i;
+            return at_end_of_file ? -1 : 0;
+        }
+
+        for (int slot = 0; slot < starts.length; slot++) {
+            starts[slot] = 0;
+            ends[slot] = 0;
+            escaped[slot] = false;
+        }
+
+        var column = 0;
+        while (true) {
+            int start;
+            int end;
+            var has_escape = false;
+            if (i < limit && buffer.get(i) == '"') {
+                // quoted field, runs until a quote that is not doubled
+                start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (!at_end_of_file) {
+                            return 0;
+                        }
+                        break; // unclosed quote on the last row, read to the end of the file
+                    }
+                    if (buffer.get(i) == '"') {
+                        if (i + 1 < limit && buffer.get(i + 1) == '"') {
+                            has_escape = true;
+                            i += 2;
+                            continue;
+                        }
+                        if (i + 1 >= limit && !at_end_of_file) {
+                            return 0;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i;
+                if (i < limit) {
+                    i++;
+                }
+                // anything between the closing quote and the separator is ignored
+                while (i < limit && buffer.get(i) != ',' && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+                    i++;
+                }
+            } else {
+                start = i;
+                while (i < limit) {
+                    var b = buffer.get(i);
+                    if (b == ',' || b == '\n' || b == '\r') {
+                        break;
+                    }
+                    i++;
+                }
+                end = i;
+            }
+            if (i >= limit && !at_end_of_file) {
+                return 0;
+            }
+
+            if (header != null) {
+                var bytes = new byte[end - start];
+                buffer.get(start, bytes);
+                header.add(new String(bytes, StandardCharsets.UTF_8).trim());
+            } else if (column < column_to_slot.length && column_to_slot[column] >= 0) {
+                var slot = column_to_slot[column];
+                starts[slot] = start;
+                ends[slot] = end;
+                escaped[slot] = has_escape;
+            }
+            column++;
+
+            if (i >= limit) {
+                position = i;
+                return 1;
+            }
+            var b = buffer.get(i++);
+            if (b == ',') {
+                continue;
+            }
+            // end of the row, a \r\n line break is one break
+            if (b == '\r' && i < limit && buffer.get(i) == '\n') {
+                i++;
+            }
+            position = i;
+            return 1;
+        }
+    }
+
+    private void map(long from) throws IOException {
+        var length = Math.min(WINDOW_SIZE, file_size - from);
+        window_start = from;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, file_offset + from, length);
+        position = 0;
+    }
+
+    /**
+     * Moves the rest of the buffer from position to the front and fills it up from the stream
+     */
+    private void refill() throws IOException {
+        window_start += position;
+        buffer.position(position);
+        buffer.compact();
+        while (buffer.hasRemaining()) {
+            if (stream.read(buffer) < 0) {
+                stream_ended = true;
+                break;
+            }
+        }
+        buffer.flip();
+        position = 0;
+    }
+
+    /**
+     * A field of the current row seen as characters, one per byte
+     */
+    private class Slice implements CharSequence {
+        private final int slot;
+
+        Slice(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public int length() {
+            return ends[slot] - starts[slot];
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(starts[slot] + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return getString(slot);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package no.busstuc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The GTFS files of a feed, either loose files in a folder or the entries of the zip the feed is distributed as.
+ * <p>
+ * Zip entries are read where they are, nothing is extracted. An entry that is stored without compression is
+ * memory mapped like a loose file, a compressed entry is inflated as it is read.
+ */
+public class GtfsFeed implements Closeable {
+    // Globing pattern for which type of files to find in a folder
+    private static final String GLOB_PATTERN = "glob:**/*.txt";
+    // Size of each mapped part of a file while it is hashed
+    private static final long HASH_WINDOW_SIZE = 1L << 28;
+
+    private final String path;
+    // file name to the loose file, when the feed is a folder
+    private final HashMap<String, Path> files = new HashMap<>();
+    // file name to the zip entry, when the feed is a zip
+    private final HashMap<String, ZipEntry> entries = new HashMap<>();
+    private final ZipFile zip;
+    // entry name to where its local header starts, only for entries stored without compression
+    private final HashMap<String, Long> stored_offsets;
+
+    private GtfsFeed(String path, ZipFile zip, HashMap<String, Long> stored_offsets) {
+        this.path = path;
+        this.zip = zip;
+        this.stored_offsets = stored_offsets;
+    }
+
+    /**
+     * @param path a folder with the GTFS files, searched recursively, or a GTFS zip
+     * @return the feed, to be closed when the files are read
+     * @throws IOException if the zip can not be opened
+     */
+    public static GtfsFeed open(String path) throws IOException {
+        if (path.toLowerCase().endsWith(".zip") && new File(path).isFile()) {
+            var zip = new ZipFile(path);
+            try {
+                var feed = new GtfsFeed(path, zip, stored_offsets(Paths.get(path)));
+                var zip_entries = zip.entries();
+                while (zip_entries.hasMoreElements()) {
+                    var entry = zip_entries.nextElement();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    var name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+                    if (name.endsWith(".txt") && feed.entries.putIfAbsent(name, entry) == null) {
+                        continue;
+                    }
+                    System.out.println(path + "!" + entry.getName() + " not used");
+                }
+                return feed;
+            } catch (IOException | RuntimeException e) {
+                zip.close();
+                throw e;
+            }
+        }
+
+        var feed = new GtfsFeed(path, null, null);
+        var separator = File.separator;
+        try {
+            for (String file : GTFS_ToBussTUC.match(GLOB_PATTERN, path)) {
+                if (separator.equals("\\")) {
+                    file = file.replaceAll(Pattern.quote(separator), "\\\\");
+                }
+                var strings = file.split(Pattern.quote(separator));
+                feed.files.put(strings[strings.length - 1], Paths.get(file));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return feed;
+    }
+
+    /**
+     * @return true if the feed has the file
+     */
+    public boolean contains(String name) {
+        return zip != null ? entries.containsKey(name) : files.containsKey(name);
+    }
+
+    /**
+     * @param name    name of the GTFS file, such as stop_times.txt
+     * @param columns the columns to read
+     * @return a reader over the file, memory mapped unless it is a compressed zip entry
+     * @throws IOException if the feed does not have the file or it can not be read
+     */
+    public GtfsCsvReader csv_reader(String name, String... columns) throws IOException {
+        if (zip == null) {
+            return GtfsCsvReader.open(file(name), columns);
+        }
+        var entry = entry(name);
+        var local_header = stored_offsets.get(entry.getName());
+        GtfsCsvReader reader;
+        if (entry.getMethod() == ZipEntry.STORED && local_header != null) {
+            reader = GtfsCsvReader.open(Paths.get(path), data_offset(local_header), entry.getSize(), columns);
+        } else {
+            reader = GtfsCsvReader.open(zip.getInputStream(entry), columns);
+        }
+        reader.setName(path + "!/" + entry.getName());
+        return reader;
+    }
+
+    /**
+     * A fingerprint of the content of a file, that changes when the content changes.
+     * Loose files are hashed, zip entries use the CRC and size the zip already has for them, so nothing is inflated.
+     *
+     * @param name name of the GTFS file
+     * @return the fingerprint, with the kind of hash in front
+     * @throws IOException if the feed does not have the file or it can not be read
+     */
+    public String fingerprint(String name) throws IOException {
+        if (zip != null) {
+            var entry = entry(name);
+            return "crc32:" + Long.toHexString(entry.getCrc()) + ":" + entry.getSize();
+        }
+        return digest(file(name));
+    }
+
+    /**
+     * @param file path to a file
+     * @return the digest of the content of the file, as DIGEST_NAME:hex
+     * @throws IOException if the file can not be read
+     */
+    static String digest(Path file) throws IOException {
+        var digest = PredicateWriter.new_digest();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW_SIZE) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_WINDOW_SIZE, size - position)));
+            }
+        }
+        return PredicateWriter.DIGEST_NAME + ":" + HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return the names of the GTFS files in the feed, in no particular order
+     */
+    public Iterable<String> names() {
+        return zip != null ? entries.keySet() : files.keySet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (zip != null) {
+            zip.close();
+        }
+    }
+
+    private Path file(String name) throws IOException {
+        var file = files.get(name);
+        if (file == null) {
+            throw new IOException(name + " not found in " + path);
+        }
+        return file;
+    }
+
+    private ZipEntry entry(String name) throws IOException {
+        var entry = entries.get(name);
+        if (entry == null) {
+            throw new IOException(name + " not found in " + path);
+        }
+        return entry;
+    }
+
+    /**
+     * @param local_header where the local header of an entry starts
+     * @return where the data of the entry starts, after the local header with its name and extra field
+     */
+    private long data_offset(long local_header) throws IOException {
+        try (var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+            read_fully(channel, header, local_header);
+            if (header.getInt(0) != 0x04034b50) {
+                throw new IOException("No local header at " + local_header + " in " + path);
+            }
+            return local_header + 30 + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        }
+    }
+
+    /**
+     * Reads the central directory of a zip for where each entry stored without compression starts.
+     * ZipFile does not tell where an entry is in the file, which is needed to map it.
+     *
+     * @return entry name to the offset of its local header
+     */
+    private static HashMap<String, Long> stored_offsets(Path zip) throws IOException {
+        var offsets = new HashMap<String, Long>();
+        try (var channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+            // the end of central directory record is in the last 64 KB, after it comes only the zip comment
+            var size = channel.size();
+            var tail_length = (int) Math.min(size, 0xffff + 22);
+            var tail = ByteBuffer.allocate(tail_length).order(ByteOrder.LITTLE_ENDIAN);
+            read_fully(channel, tail, size - tail_length);
+            var end = -1;
+            for (int i = tail_length - 22; i >= 0; i--) {
+                if (tail.getInt(i) == 0x06054b50) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) {
+                return offsets;
+            }
+            long directory_offset = tail.getInt(end + 16) & 0xffffffffL;
+            long directory_size = tail.getInt(end + 12) & 0xffffffffL;
+            if (directory_offset == 0xffffffffL && end >= 20 && tail.getInt(end - 20) == 0x07064b50) {
+                // zip64, the zip64 end record tells where the directory is
+                var zip64_end = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+                read_fully(channel, zip64_end, tail.getLong(end - 20 + 8));
+                directory_size = zip64_end.getLong(40);
+                directory_offset = zip64_end.getLong(48);
+            }
+
+            var directory = ByteBuffer.allocate((int) directory_size).order(ByteOrder.LITTLE_ENDIAN);
+            read_fully(channel, directory, directory_offset);
+            var i = 0;
+            while (i + 46 <= directory_size && directory.getInt(i) == 0x02014b50) {
+                var method = directory.getShort(i + 10) & 0xffff;
+                var name_length = directory.getShort(i + 28) & 0xffff;
+                var extra_length = directory.getShort(i + 30) & 0xffff;
+                var comment_length = directory.getShort(i + 32) & 0xffff;
+                long local_header = directory.getInt(i + 42) & 0xffffffffL;
+                var name_bytes = new byte[name_length];
+                directory.get(i + 46, name_bytes);
+                if (local_header == 0xffffffffL) {
+                    local_header = zip64_offset(directory, i, name_length, extra_length);
+                }
+                if (method == ZipEntry.STORED) {
+                    offsets.put(new String(name_bytes, StandardCharsets.UTF_8), local_header);
+                }
+                i += 46 + name_length + extra_length + comment_length;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * @return the local header offset from the zip64 extra field of a central directory entry
+     */
+    private static long zip64_offset(ByteBuffer directory, int entry, int name_length, int extra_length) throws IOException {
+        var i = entry + 46 + name_length;
+        var extra_end = i + extra_length;
+        while (i + 4 <= extra_end) {
+            var id = directory.getShort(i) & 0xffff;
+            var length = directory.getShort(i + 2) & 0xffff;
+            if (id == 0x0001) {
+                // the 8 byte values that are there are those whose 4 byte field is full: sizes first, then offset
+                var value = i + 4;
+                if ((directory.getInt(entry + 24) & 0xffffffffL) == 0xffffffffL)
+                    value += 8;
+                if ((directory.getInt(entry + 20) & 0xffffffffL) == 0xffffffffL)
+                    value += 8;
+                return directory.getLong(value);
+            }
+            i += 4 + length;
+        }
+        throw new IOException("Missing zip64 offset");
+    }
+
+    private static void read_fully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip");
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package no.busstuc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.SplittableRandom;
+
+/**
+ * Writes a synthetic GTFS feed in the Entur id format, for benchmarks and load tests on feeds of any size.
+ * <p>
+ * The same settings and seed always give the same files. Trips are made from a set of trip patterns, each a
+ * fixed list of stops with fixed times between them, so the share of trips that reuse a pattern decides
+ * how many unique segments regpas.pl gets. Rows are written as they are made, so a feed of 50 million
+ * stop_times rows needs no more memory than a small one.
+ */
+public class GtfsFeedGenerator {
+    private static final String[] NAMES = {"Prinsens", "Kongens", "Munke", "Olav Tryggvasons", "Elgeseter", "Innherreds",
+            "Dronningens", "Erling Skakkes", "Kjøpmanns", "Fjordgata", "Lade", "Byåsen", "Sirkus", "Studentersamfundet"};
+    private static final String[] ENDINGS = {"gate", "gata", "vei", "veien", "gt", "torg", "plass", "skole", "senter", ""};
+    private static final String[] WEEKS = {"1111100", "0000010", "0000001", "1111111", "1111110", "0000011", "1010100"};
+    private static final int FIRST_QUAY = 70000;
+
+    private long seed = 1;
+    private int stops = 2000;
+    private int trips = 10000;
+    private int stops_per_trip = 20;
+    private double pattern_reuse = 0.9;
+    private double exception_density = 0.02;
+    private int services = 20;
+    private int lines = 100;
+    private LocalDate start_date = LocalDate.of(2022, 5, 2);
+    private int days = 180;
+
+    /**
+     * Writes calendar.txt, calendar_dates.txt, stops.txt, trips.txt and stop_times.txt
+     *
+     * @param dir the folder to write the feed to, made if it is not there
+     * @throws IOException if a file can not be written
+     */
+    public void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        var random = new SplittableRandom(seed);
+        write_calendar(dir, random.split());
+        write_stops(dir, random.split());
+        write_trips(dir, random.split());
+    }
+
+    private void write_calendar(Path dir, SplittableRandom random) throws IOException {
+        var end_date = start_date.plusDays(days);
+        try (var out = writer(dir, "calendar.txt")) {
+            out.write("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n");
+            var line = new StringBuilder();
+            for (int service = 0; service < services; service++) {
+                line.setLength(0);
+                line.append(service_id(service));
+                for (char day : WEEKS[service % WEEKS.length].toCharArray()) {
+                    line.append(',').append(day);
+                }
+                // the later services start some weeks into the period
+                var from = start_date.plusDays(7L * random.nextInt(Math.max(1, days / 28)));
+                line.append(',').append(from.format(GTFS_ToBussTUC.IN_FORMAT)).append(',').append(end_date.format(GTFS_ToBussTUC.IN_FORMAT)).append('\n');
+                out.append(line);
+            }
+        }
+        try (var out = writer(dir, "calendar_dates.txt")) {
+            out.write("service_id,date,exception_type\n");
+            for (int day = 0; day < days; day++) {
+                var date = start_date.plusDays(day).format(GTFS_ToBussTUC.IN_FORMAT);
+                for (int service = 0; service < services; service++) {
+                    if (random.nextDouble() < exception_density) {
+                        // most exceptions take a day out, a few add one
+                        out.append(service_id(service)).append(',').append(date).append(random.nextInt(10) == 0 ? ",1\n" : ",2\n");
+                    }
+                }
+                // a service that only runs on single days, such as a holiday
+                if (random.nextDouble() < exception_density) {
+                    out.append(service_id(services + day % 4)).append(',').append(date).append(",1\n");
+                }
+            }
+        }
+    }
+
+    private void write_stops(Path dir, SplittableRandom random) throws IOException {
+        try (var out = writer(dir, "stops.txt")) {
+            out.write("stop_id,stop_name,parent_station,platform_code\n");
+            var line = new StringBuilder();
+            // two quays on each side of the road share a stop place
+            for (int stop_place = 0; stop_place * 2 < stops; stop_place++) {
+                var name = NAMES[random.nextInt(NAMES.length)] + " " + ENDINGS[random.nextInt(ENDINGS.length)];
+                if (stop_place >= NAMES.length * ENDINGS.length) {
+                    name = name + " " + (stop_place / (NAMES.length * ENDINGS.length));
+                }
+                name = name.replace("  ", " ").trim();
+                line.setLength(0);
+                line.append("NSR:StopPlace:").append(stop_place).append(',').append(name).append(",,\n");
+                for (int quay = stop_place * 2; quay < Math.min(stops, stop_place * 2 + 2); quay++) {
+                    line.append("NSR:Quay:").append(FIRST_QUAY + quay).append(',').append(name)
+                            .append(",NSR:StopPlace:").append(stop_place).append(',').append(quay % 2 + 1).append('\n');
+                }
+                out.append(line);
+            }
+        }
+    }
+
+    private void write_trips(Path dir, SplittableRandom random) throws IOException {
+        var patterns = Math.max(1, (int) Math.round(trips * (1 - pattern_reuse)));
+        var date_code = start_date.format(GTFS_ToBussTUC.OUT_FORMAT);
+        try (var trips_out = writer(dir, "trips.txt"); var stop_times_out = writer(dir, "stop_times.txt")) {
+            trips_out.write("route_id,service_id,trip_id\n");
+            stop_times_out.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+            var line = new StringBuilder();
+            var pattern_stops = new int[stops_per_trip];
+            var pattern_minutes = new int[stops_per_trip];
+            for (int trip = 0; trip < trips; trip++) {
+                // every pattern is used once, then the trips pick patterns at random
+                var pattern = trip < patterns ? trip : random.nextInt(patterns);
+                var line_number = pattern % lines + 1;
+                var trip_id = "ATB:ServiceJourney:" + line_number + "_" + date_code + "_" + trip;
+                trips_out.append("ATB:Line:").append(String.valueOf(line_number)).append(',')
+                        .append(service_id(random.nextInt(services))).append(',').append(trip_id).append('\n');
+
+                make_pattern(pattern, pattern_stops, pattern_minutes);
+                var departure = 5 * 60 + random.nextInt(19 * 60);
+                for (int i = 0; i < stops_per_trip; i++) {
+                    line.setLength(0);
+                    line.append(trip_id).append(',');
+                    append_time(line, departure + pattern_minutes[i]);
+                    line.append(',');
+                    // the bus waits a minute at every tenth stop
+                    append_time(line, departure + pattern_minutes[i] + (i % 10 == 5 ? 1 : 0));
+                    line.append(",NSR:Quay:").append(FIRST_QUAY + pattern_stops[i]).append(',').append(i + 1).append('\n');
+                    stop_times_out.append(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * The stops of a pattern and the minutes from the first stop to each of them, the same every time for the same pattern
+     */
+    private void make_pattern(int pattern, int[] pattern_stops, int[] pattern_minutes) {
+        var random = new SplittableRandom(seed * 31 + pattern);
+        var stop = random.nextInt(stops);
+        var minutes = 0;
+        for (int i = 0; i < pattern_stops.length; i++) {
+            pattern_stops[i] = stop;
+            pattern_minutes[i] = minutes;
+            stop = (stop + 1 + random.nextInt(7)) % stops;
+            minutes += 1 + random.nextInt(3);
+        }
+    }
+
+    private static String service_id(int service) {
+        return "ATB:DayType:" + (service / 10) + "_" + (service % 10);
+    }
+
+    /**
+     * Appends minutes since midnight as HH:MM:00, past 24 hours for trips that run over midnight
+     */
+    private static void append_time(StringBuilder line, int minutes) {
+        var hours = minutes / 60;
+        var minute = minutes % 60;
+        line.append((char) ('0' + hours / 10)).append((char) ('0' + hours % 10)).append(':')
+                .append((char) ('0' + minute / 10)).append((char) ('0' + minute % 10)).append(":00");
+    }
+
+    private static BufferedWriter writer(Path dir, String name) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(dir.resolve(name)), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * @return rows in stop_times.txt
+     */
+    public long getStop_times() {
+        return (long) trips * stops_per_trip;
+    }
+
+    /**
+     * Sets the number of trips that gives about the number of stop_times rows with the stops per trip
+     */
+    public void setStop_times(long stop_times) {
+        setTrips((int) Math.max(1, stop_times / stops_per_trip));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return number of quays, two quays share a stop place
+     */
+    public int getStops() {
+        return stops;
+    }
+
+    public void setStops(int stops) {
+        this.stops = Math.max(2, stops);
+    }
+
+    public int getTrips() {
+        return trips;
+    }
+
+    public void setTrips(int trips) {
+        this.trips = Math.max(1, trips);
+    }
+
+    public int getStops_per_trip() {
+        return stops_per_trip;
+    }
+
+    public void setStops_per_trip(int stops_per_trip) {
+        this.stops_per_trip = Math.max(2, stops_per_trip);
+    }
+
+    /**
+     * @return share of trips, from 0 to 1, that use the pattern of an earlier trip
+     */
+    public double getPattern_reuse() {
+        return pattern_reuse;
+    }
+
+    public void setPattern_reuse(double pattern_reuse) {
+        this.pattern_reuse = Math.min(1, Math.max(0, pattern_reuse));
+    }
+
+    /**
+     * @return chance, from 0 to 1, that a service has an exception in calendar_dates.txt on a day
+     */
+    public double getException_density() {
+        return exception_density;
+    }
+
+    public void setException_density(double exception_density) {
+        this.exception_density = Math.min(1, Math.max(0, exception_density));
+    }
+
+    /**
+     * @return number of services in calendar.txt
+     */
+    public int getServices() {
+        return services;
+    }
+
+    public void setServices(int services) {
+        this.services = Math.max(1, services);
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public void setLines(int lines) {
+        this.lines = Math.max(1, lines);
+    }
+
+    public LocalDate getStart_date() {
+        return start_date;
+    }
+
+    /**
+     * @param start_date first day of the services, moved back to its Monday like the day masks of regdko.pl
+     */
+    public void setStart_date(LocalDate start_date) {
+        this.start_date = start_date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    /**
+     * @return number of days the services run
+     */
+    public int getDays() {
+        return days;
+    }
+
+    public void setDays(int days) {
+        this.days = Math.max(7, days);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String usage = "java -cp GTFS_to_BussTUC.jar no.busstuc.GtfsFeedGenerator [--seed N] [--stop-times N] [--stops N] [--trips N]"
+                + " [--stops-per-trip N] [--pattern-reuse 0..1] [--exception-density 0..1] [--services N] [--lines N] OUTPUT_FOLDER\n"
+                + "Writes a synthetic GTFS feed to OUTPUT_FOLDER, --stop-times sets the trips from the stops per trip\n";
+        var generator = new GtfsFeedGenerator();
+        String out = null;
+        // --stop-times is applied last, so it uses the final stops per trip
+        long stop_times = -1;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seed" -> generator.setSeed(Long.parseLong(args[++i]));
+                    case "--stop-times" -> stop_times = Long.parseLong(args[++i]);
+                    case "--stops" -> generator.setStops(Integer.parseInt(args[++i]));
+                    case "--trips" -> generator.setTrips(Integer.parseInt(args[++i]));
+                    case "--stops-per-trip" -> generator.setStops_per_trip(Integer.parseInt(args[++i]));
+                    case "--pattern-reuse" -> generator.setPattern_reuse(Double.parseDouble(args[++i]));
+                    case "--exception-density" -> generator.setException_density(Double.parseDouble(args[++i]));
+                    case "--services" -> generator.setServices(Integer.parseInt(args[++i]));
+                    case "--lines" -> generator.setLines(Integer.parseInt(args[++i]));
+                    default -> out = args[i];
+                }
+            }
+        } catch (RuntimeException e) {
+            out = null;
+        }
+        if (out == null) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+        if (stop_times > 0) {
+            generator.setStop_times(stop_times);
+        }
+        var start = System.currentTimeMillis();
+        generator.write(Paths.get(out));
+        System.out.println("Wrote " + generator.getStop_times() + " stop_times rows of " + generator.getTrips() + " trips to "
+                + out + " in " + (System.currentTimeMillis() - start) + " msec.");
+    }
+}
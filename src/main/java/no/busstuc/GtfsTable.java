@@ -0,0 +1,197 @@
+package no.busstuc;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * The columns of a GTFS file that the builders use, held column by column.
+ * <p>
+ * Every column is dictionary encoded: each distinct value is kept once, and the rows hold an int code per column.
+ * Service ids, dates and the day columns of calendar.txt repeat a lot, so the table is small, and it can be written
+ * to and read from a {@link FeedSnapshot} as a few int arrays and one list of strings per column.
+ */
+public class GtfsTable implements Iterable<GtfsTable.Row> {
+    private final String[] columns;
+    // per column, the distinct values in the order they were first seen
+    private final String[][] dictionaries;
+    // per column, the code of the value of every row
+    private final int[][] codes;
+    private final int size;
+
+    private GtfsTable(String[] columns, String[][] dictionaries, int[][] codes, int size) {
+        this.columns = columns;
+        this.dictionaries = dictionaries;
+        this.codes = codes;
+        this.size = size;
+    }
+
+    /**
+     * Reads every row of the reader into a table
+     *
+     * @param reader  reader opened with the columns
+     * @param columns the columns the reader was opened with, in the same order
+     * @return the table
+     * @throws IOException if the file can not be read
+     */
+    public static GtfsTable read(GtfsCsvReader reader, String... columns) throws IOException {
+        var indexes = new ArrayList<HashMap<String, Integer>>();
+        var values = new ArrayList<ArrayList<String>>();
+        var codes = new int[columns.length][1024];
+        for (int column = 0; column < columns.length; column++) {
+            indexes.add(new HashMap<>());
+            values.add(new ArrayList<>());
+        }
+        var size = 0;
+        while (reader.next()) {
+            if (size == codes[0].length) {
+                for (int column = 0; column < columns.length; column++) {
+                    codes[column] = Arrays.copyOf(codes[column], size * 2);
+                }
+            }
+            for (int column = 0; column < columns.length; column++) {
+                var value = reader.getString(column);
+                var column_values = values.get(column);
+                var code = indexes.get(column).computeIfAbsent(value, v -> {
+                    column_values.add(v);
+                    return column_values.size() - 1;
+                });
+                codes[column][size] = code;
+            }
+            size++;
+        }
+        var dictionaries = new String[columns.length][];
+        for (int column = 0; column < columns.length; column++) {
+            dictionaries[column] = values.get(column).toArray(new String[0]);
+            codes[column] = Arrays.copyOf(codes[column], size);
+        }
+        return new GtfsTable(columns.clone(), dictionaries, codes, size);
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row index of the row
+     * @return a view of the row
+     */
+    public Row row(int row) {
+        return new Row(Objects.checkIndex(row, size));
+    }
+
+    /**
+     * @param row    index of the row
+     * @param column index of the column
+     * @return the value
+     */
+    public String get(int row, int column) {
+        return dictionaries[column][codes[column][row]];
+    }
+
+    /**
+     * @return the distinct values of the column, a code is a place in it
+     */
+    String[] dictionary(int column) {
+        return dictionaries[column];
+    }
+
+    /**
+     * @return the code of the value of the row in the column
+     */
+    int code(int row, int column) {
+        return codes[column][row];
+    }
+
+    /**
+     * @param name name of the column
+     * @return index of the column
+     * @throws IllegalArgumentException if the table does not have the column
+     */
+    public int column(String name) {
+        for (int column = 0; column < columns.length; column++) {
+            if (columns[column].equals(name)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Mapping for " + name + " not found, expected one of " + Arrays.toString(columns));
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Row next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return new Row(next++);
+            }
+        };
+    }
+
+    /**
+     * Writes the table as: rows, columns, and for each column its name, its dictionary and the codes of the rows
+     */
+    void write_to(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(columns.length);
+        for (int column = 0; column < columns.length; column++) {
+            FeedSnapshot.write_string(out, columns[column]);
+            FeedSnapshot.write_strings(out, dictionaries[column]);
+            FeedSnapshot.write_ints(out, codes[column], size);
+        }
+    }
+
+    /**
+     * Reads a table written by write_to
+     */
+    static GtfsTable read_from(ByteBuffer in) {
+        var size = in.getInt();
+        var columns = new String[in.getInt()];
+        var dictionaries = new String[columns.length][];
+        var codes = new int[columns.length][];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = FeedSnapshot.read_string(in);
+            dictionaries[column] = FeedSnapshot.read_strings(in);
+            codes[column] = FeedSnapshot.read_ints(in, size);
+        }
+        return new GtfsTable(columns, dictionaries, codes, size);
+    }
+
+    /**
+     * A row of the table, read by column name like a CSV record
+     */
+    public class Row {
+        private final int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        /**
+         * @param column name of the column
+         * @return the value in the column
+         * @throws IllegalArgumentException if the table does not have the column
+         */
+        public String get(String column) {
+            return GtfsTable.this.get(row, column(column));
+        }
+    }
+}
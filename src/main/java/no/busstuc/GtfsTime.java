@@ -0,0 +1,53 @@
+package no.busstuc;
+
+/**
+ * Helpers for GTFS times on the form HH:MM:SS, where the hours may go past 24 for trips that run after midnight.
+ * Seconds are not used by busstuc and are ignored.
+ */
+public final class GtfsTime {
+    private GtfsTime() {}
+
+    /**
+     * Parses a GTFS time without making any new objects
+     *
+     * @param time a time such as "07:05:00", "7:05:00" or "25:10:00"
+     * @return minutes since midnight of the service day
+     * @throws NumberFormatException if the time is not on the form H:MM or H:MM:SS
+     */
+    public static int minutes(CharSequence time) {
+        var length = time.length();
+        var hours = 0;
+        var i = 0;
+        for (; i < length && time.charAt(i) != ':'; i++) {
+            hours = hours * 10 + digit(time, i);
+        }
+        if (i == 0 || i == length) {
+            throw new NumberFormatException("Not a GTFS time: \"" + time + "\"");
+        }
+        var minutes = 0;
+        var start = ++i;
+        for (; i < length && time.charAt(i) != ':'; i++) {
+            minutes = minutes * 10 + digit(time, i);
+        }
+        if (i == start) {
+            throw new NumberFormatException("Not a GTFS time: \"" + time + "\"");
+        }
+        return hours * 60 + minutes;
+    }
+
+    /**
+     * @param minutes minutes since midnight
+     * @return the time as the number HHMM used in regdep.pl, e.g. 705 for 07:05 and 2510 for 25:10
+     */
+    public static int hhmm(int minutes) {
+        return minutes / 60 * 100 + minutes % 60;
+    }
+
+    private static int digit(CharSequence time, int index) {
+        var digit = time.charAt(index) - '0';
+        if (digit < 0 || digit > 9) {
+            throw new NumberFormatException("Not a GTFS time: \"" + time + "\"");
+        }
+        return digit;
+    }
+}
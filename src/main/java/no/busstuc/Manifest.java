@@ -0,0 +1,189 @@
+package no.busstuc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The predicate files in a route folder, each with its digest, its size and modified time as it was written,
+ * and a digest of the fingerprints of the input files it was made from, kept next to the folder
+ * so a later conversion can tell which files have to be made again.
+ * <p>
+ * The manifest is a text file of one entry per line:
+ * <pre>
+ * % GTFS_ToBussTUC manifest 2
+ * settings legacy_order=false
+ * output regdko.pl sha256:... 5120 1665000000000 sha256:...
+ * </pre>
+ */
+public class Manifest {
+    // Raise when the builders change what they make from the same input, so every file is made again
+    static final int VERSION = 2;
+    private static final String FIRST_LINE = "% GTFS_ToBussTUC manifest " + VERSION;
+
+    private String settings = "";
+    private final TreeMap<String, Output> outputs = new TreeMap<>();
+
+    /**
+     * @param path path to the manifest
+     * @return the manifest, empty if there is none or it was written by another version
+     * @throws IOException if the manifest can not be read
+     */
+    public static Manifest load(Path path) throws IOException {
+        var manifest = new Manifest();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return manifest;
+        }
+        if (lines.isEmpty() || !lines.get(0).equals(FIRST_LINE)) {
+            return manifest;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            var parts = line.split(" ");
+            switch (parts[0]) {
+                case "settings" -> manifest.settings = line.substring("settings ".length());
+                case "output" -> manifest.outputs.put(parts[1], new Output(parts[2], Long.parseLong(parts[3]), Long.parseLong(parts[4]), parts[5]));
+                default -> { }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest through a temporary file, so it is never seen half written
+     *
+     * @param path path to the manifest
+     * @throws IOException if the manifest can not be written
+     */
+    public void save(Path path) throws IOException {
+        var text = new StringBuilder(FIRST_LINE).append('\n');
+        text.append("settings ").append(settings).append('\n');
+        for (var output : outputs.entrySet()) {
+            var written = output.getValue();
+            text.append("output ").append(output.getKey()).append(' ').append(written.getDigest()).append(' ').append(written.getSize())
+                    .append(' ').append(written.getModified()).append(' ').append(written.getInputs()).append('\n');
+        }
+        var temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the options the files were made with, files made with other options are out of date
+     */
+    public String getSettings() {
+        return settings;
+    }
+
+    public void setSettings(String settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return output file name to what was written
+     */
+    public Map<String, Output> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * @param fingerprints input file name to its fingerprint
+     * @param input_names  the input files an output is made from
+     * @return digest of the fingerprints of the inputs, as DIGEST_NAME:hex
+     */
+    public static String inputs_digest(Map<String, String> fingerprints, List<String> input_names) {
+        var digest = PredicateWriter.new_digest();
+        for (String input : input_names) {
+            digest.update((input + " " + fingerprints.get(input) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return PredicateWriter.DIGEST_NAME + ":" + HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Tells if files made from the inputs have to be made again: an output is not in the manifest,
+     * it was made from inputs with other fingerprints, or it is not in the folder as it was written
+     *
+     * @param fingerprints input file name to its fingerprint now
+     * @param dir          the route folder
+     * @param input_names  the input files the outputs are made from
+     * @param output_names the files made from them
+     * @return true if the files have to be made
+     */
+    public boolean is_stale(Map<String, String> fingerprints, Path dir, List<String> input_names, List<String> output_names) {
+        var inputs = inputs_digest(fingerprints, input_names);
+        for (String output : output_names) {
+            if (!outputs.containsKey(output) || !outputs.get(output).getInputs().equals(inputs) || !is_intact(dir, output)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The file is not read, a file changed since it was written has another modified time
+     *
+     * @param dir    the route folder
+     * @param output name of an output file
+     * @return true if the file is in the manifest and in the folder with the size and modified time it was written with
+     */
+    public boolean is_intact(Path dir, String output) {
+        var written = outputs.get(output);
+        if (written == null) {
+            return false;
+        }
+        var path = dir.resolve(output);
+        try {
+            return Files.size(path) == written.getSize() && Files.getLastModifiedTime(path).toMillis() == written.getModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A predicate file as it was written
+     */
+    public static class Output {
+        private final String digest;
+        private final long size;
+        private final long modified;
+        private final String inputs;
+
+        /**
+         * @param digest   digest of the content, as DIGEST_NAME:hex
+         * @param size     size in bytes
+         * @param modified modified time in msec since the epoch
+         * @param inputs   digest of the fingerprints of the inputs it was made from
+         */
+        public Output(String digest, long size, long modified, String inputs) {
+            this.digest = digest;
+            this.size = size;
+            this.modified = modified;
+            this.inputs = inputs;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public String getInputs() {
+            return inputs;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package no.busstuc;
+
+import java.io.IOException;
+
+/**
+ * A segment of a trip, seen as a slice of the rows in a SegmentStore.
+ * Equality and hashing compare the stop, arr and dep of the rows directly.
+ */
+class PasSegment {
+    private final SegmentStore store;
+    private final int seg_id;
+    private final int offset;
+    private final int length;
+    private final int hash;
+
+    public PasSegment(SegmentStore store, int seg_id, int offset, int length) {
+        this.store = store;
+        this.seg_id = seg_id;
+        this.offset = offset;
+        this.length = length;
+        this.hash = store.hash_rows(offset, length);
+    }
+
+    public int getSeg_id() {
+        return seg_id;
+    }
+
+    public SegmentStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the row of the first stop in the store
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return number of stops in the segment
+     */
+    public int size() {
+        return length;
+    }
+
+    public int getStop(int index) {
+        return store.stop(offset + index);
+    }
+
+    public int getSeq(int index) {
+        return store.seq(offset + index);
+    }
+
+    public int getArr(int index) {
+        return store.arr(offset + index);
+    }
+
+    public int getDep(int index) {
+        return store.dep(offset + index);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof PasSegment) {
+            var temp = (PasSegment) obj;
+
+            return this.length == temp.length && this.hash == temp.hash && this.store == temp.store
+                    && store.equal_rows(this.offset, temp.offset, length);
+        }
+
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Writes the passes4 lines of the segment, each one after a line break
+     *
+     * @param out        the regpas.pl writer
+     * @param stat_names the stat name of each row in the store
+     */
+    public void write_to(PredicateWriter out, String[] stat_names) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.end_line().append("passes4(").append(seg_id).append(", ").append(getStop(i)).append(", ").append(stat_names[offset + i])
+                    .append(", ").append(getSeq(i) + 1).append(", ").append(getArr(i)).append(", ").append(getDep(i)).append(").");
+        }
+    }
+}
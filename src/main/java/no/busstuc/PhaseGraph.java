@@ -0,0 +1,200 @@
+package no.busstuc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Runs the phases of a conversion on a fork-join pool, each phase as soon as the phases it depends on are done.
+ * <p>
+ * Phases are added with the phases whose results they use, so independent phases run at the same time and
+ * a phase only waits for its real inputs. When everything is done the critical path, the chain of phases that
+ * decided the total time, can be printed together with how long each phase waited and ran,
+ * and the {@link PhaseMetrics} of every phase are kept.
+ */
+public class PhaseGraph {
+    private final ForkJoinPool pool;
+    private final boolean owns_pool;
+    private final ArrayList<Phase<?>> phases = new ArrayList<>();
+    private final long created = System.nanoTime();
+
+    /**
+     * @param parallelism the most phases that run at the same time
+     */
+    public PhaseGraph(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.owns_pool = true;
+    }
+
+    /**
+     * A graph that runs its phases on a pool shared with other graphs, the pool is left running after join
+     *
+     * @param pool the pool to run the phases on
+     */
+    public PhaseGraph(ForkJoinPool pool) {
+        this.pool = pool;
+        this.owns_pool = false;
+    }
+
+    /**
+     * Adds a phase, it is started right away if it has nothing to wait for
+     *
+     * @param name       name used when printing timings
+     * @param work       the work of the phase, may call get on the phases it depends on
+     * @param depends_on the phases whose results the work uses
+     * @return the phase, to get its result or to depend on
+     */
+    public <T> Phase<T> add(String name, Supplier<T> work, Phase<?>... depends_on) {
+        var phase = new Phase<T>(name, depends_on);
+        var inputs = new CompletableFuture<?>[depends_on.length];
+        for (int i = 0; i < depends_on.length; i++) {
+            inputs[i] = depends_on[i].future;
+        }
+        phase.future = CompletableFuture.allOf(inputs).thenApplyAsync(done -> phase.measure(work, created), pool);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * Runs a step on the calling thread and keeps its timings with those of the phases,
+     * for the steps after the graph is joined, such as writing the files
+     *
+     * @param name name used when printing timings
+     * @param work the work of the step
+     * @return the result of the work
+     */
+    public <T> T run(String name, Supplier<T> work) {
+        var phase = new Phase<T>(name, new Phase<?>[0]);
+        phases.add(phase);
+        try {
+            var result = phase.measure(work, created);
+            phase.future = CompletableFuture.completedFuture(result);
+            return result;
+        } catch (RuntimeException e) {
+            phase.future = CompletableFuture.failedFuture(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for all phases and stops the pool if the graph made it
+     *
+     * @throws java.util.concurrent.CompletionException if a phase failed
+     */
+    public void join() {
+        try {
+            for (Phase<?> phase : phases) {
+                phase.future.join();
+            }
+        } finally {
+            if (owns_pool) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Prints the critical path and the wait and run time of every phase, call after join
+     */
+    public void print_timings() {
+        Phase<?> last = null;
+        for (Phase<?> phase : phases) {
+            if (last == null || phase.end > last.end) {
+                last = phase;
+            }
+        }
+        if (last == null) {
+            return;
+        }
+        var path = new ArrayList<Phase<?>>();
+        for (var phase = last; phase != null; phase = phase.latest_input()) {
+            path.add(0, phase);
+        }
+
+        System.out.println("Critical path, " + msec(last.end - created) + " msec:");
+        for (Phase<?> phase : path) {
+            System.out.println(String.format("  %-28s %7d -> %7d msec (%d msec)", phase.name, msec(phase.start - created), msec(phase.end - created), msec(phase.end - phase.start)));
+        }
+        System.out.println("All phases:");
+        for (Phase<?> phase : phases) {
+            var input = phase.latest_input();
+            var waited = phase.start - (input == null ? created : input.end);
+            System.out.println(String.format("  %-28s ran %7d msec, waited %5d msec for a thread", phase.name, msec(phase.end - phase.start), msec(waited)));
+        }
+    }
+
+    /**
+     * @return the metrics of every phase that ran, in the order the phases were added, call after join
+     */
+    public List<PhaseMetrics> metrics() {
+        var metrics = new ArrayList<PhaseMetrics>();
+        for (Phase<?> phase : phases) {
+            if (phase.metrics != null) {
+                metrics.add(phase.metrics);
+            }
+        }
+        return metrics;
+    }
+
+    private static long msec(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    /**
+     * A phase in the graph and the result it gives
+     */
+    public static class Phase<T> {
+        private final String name;
+        private final Phase<?>[] depends_on;
+        private CompletableFuture<T> future;
+        private volatile long start;
+        private volatile long end;
+        private volatile PhaseMetrics metrics;
+
+        private Phase(String name, Phase<?>[] depends_on) {
+            this.name = name;
+            this.depends_on = depends_on;
+        }
+
+        /**
+         * @return the result, waiting for the phase if it is not done
+         */
+        public T get() {
+            return future.join();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return run time in nanoseconds, only valid when the phase is done
+         */
+        public long getRun_nanos() {
+            return end - start;
+        }
+
+        private T measure(Supplier<T> work, long origin) {
+            var measured = PhaseMetrics.start(name, origin);
+            start = System.nanoTime();
+            try {
+                return work.get();
+            } finally {
+                end = System.nanoTime();
+                metrics = measured.stop();
+            }
+        }
+
+        private Phase<?> latest_input() {
+            Phase<?> latest = null;
+            for (Phase<?> input : depends_on) {
+                if (latest == null || input.end > latest.end) {
+                    latest = input;
+                }
+            }
+            return latest;
+        }
+    }
+}
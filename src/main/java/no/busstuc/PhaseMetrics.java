@@ -0,0 +1,169 @@
+package no.busstuc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What one phase of a conversion cost: wall and CPU time, bytes allocated, heap, and the rows it took in and gave out.
+ * <p>
+ * A phase is measured on the thread it runs on, from {@link #start(String, long)} until {@link #stop()}.
+ * While it runs, {@link #count(String, long)} adds to the counts of the phase measured on the calling thread.
+ * Phases run at the same time and share the heap, so the peak heap of a phase is the highest heap use
+ * since {@link #reset_peak_heap()} up to the end of the phase, not the heap of that phase alone.
+ */
+public class PhaseMetrics {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final ThreadLocal<PhaseMetrics> CURRENT = new ThreadLocal<>();
+
+    private final String name;
+    // System.nanoTime the start of the phase is told from
+    private final long origin;
+    private final long start;
+    private long end;
+    private long cpu_nanos;
+    private long allocated_bytes;
+    private long peak_heap_bytes;
+    private final LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+    // the phase that was measured on the thread before this one started, measured again when this one stops
+    private final PhaseMetrics outer;
+
+    private PhaseMetrics(String name, long origin) {
+        this.name = name;
+        this.origin = origin;
+        this.outer = CURRENT.get();
+        this.start = System.nanoTime();
+        this.cpu_nanos = cpu_nanos();
+        this.allocated_bytes = allocated_bytes();
+    }
+
+    /**
+     * Starts measuring a phase on the calling thread
+     *
+     * @param name   name of the phase
+     * @param origin System.nanoTime of the start of the conversion
+     * @return the metrics, stop them on the same thread
+     */
+    public static PhaseMetrics start(String name, long origin) {
+        var metrics = new PhaseMetrics(name, origin);
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    /**
+     * Stops measuring, must be called on the thread that started
+     *
+     * @return the metrics
+     */
+    public PhaseMetrics stop() {
+        end = System.nanoTime();
+        var cpu_end = cpu_nanos();
+        var allocated_end = allocated_bytes();
+        cpu_nanos = cpu_nanos < 0 || cpu_end < 0 ? -1 : cpu_end - cpu_nanos;
+        allocated_bytes = allocated_bytes < 0 || allocated_end < 0 ? -1 : allocated_end - allocated_bytes;
+        peak_heap_bytes = peak_heap();
+        CURRENT.set(outer);
+        return this;
+    }
+
+    /**
+     * Adds to a count of the phase measured on the calling thread, nothing happens if no phase is measured
+     *
+     * @param name  what is counted, such as rows_in
+     * @param value how many to add
+     */
+    public static void count(String name, long value) {
+        var metrics = CURRENT.get();
+        if (metrics != null) {
+            metrics.counts.merge(name, value, Long::sum);
+        }
+    }
+
+    /**
+     * Starts the peak heap over, the peaks of phases measured after this are from now on
+     */
+    public static void reset_peak_heap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the peak use of the heap pools
+     */
+    public static long peak_heap() {
+        var peak = 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return CPU time of the calling thread, -1 if the JVM does not measure it
+     */
+    private static long cpu_nanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * @return bytes allocated by the calling thread, -1 if the JVM does not count them
+     */
+    private static long allocated_bytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return time from the start of the conversion until the phase started
+     */
+    public long getStart_nanos() {
+        return start - origin;
+    }
+
+    public long getWall_nanos() {
+        return end - start;
+    }
+
+    /**
+     * @return CPU time of the thread the phase ran on, -1 if the JVM does not measure it
+     */
+    public long getCpu_nanos() {
+        return cpu_nanos;
+    }
+
+    /**
+     * @return bytes allocated by the thread the phase ran on, -1 if the JVM does not count them
+     */
+    public long getAllocated_bytes() {
+        return allocated_bytes;
+    }
+
+    /**
+     * @return the highest heap use up to the end of the phase
+     */
+    public long getPeak_heap_bytes() {
+        return peak_heap_bytes;
+    }
+
+    /**
+     * @return what the phase counted, in the order it was first counted
+     */
+    public Map<String, Long> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+}
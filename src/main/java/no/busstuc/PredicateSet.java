@@ -0,0 +1,38 @@
+package no.busstuc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Collects predicates for one of the .pl files without duplicates.
+ * A predicate is kept the first time it is added, later equal predicates are ignored,
+ * and adding costs the same no matter how many predicates are already collected.
+ */
+public class PredicateSet {
+    private final LinkedHashSet<String> predicates = new LinkedHashSet<>();
+
+    /**
+     * @param predicate predicate to add
+     * @return true if the predicate was not already collected
+     */
+    public boolean add(String predicate) {
+        return predicates.add(predicate);
+    }
+
+    public boolean contains(String predicate) {
+        return predicates.contains(predicate);
+    }
+
+    public int size() {
+        return predicates.size();
+    }
+
+    /**
+     * @return the collected predicates sorted the same way as the output files
+     */
+    public ArrayList<String> toSortedList() {
+        var sorted = new ArrayList<>(predicates);
+        sorted.sort(null);
+        return sorted;
+    }
+}
@@ -0,0 +1,315 @@
+package no.busstuc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Writes a Prolog file of predicates, encoding UTF-8 straight into a large direct buffer on a FileChannel.
+ * The buffer is taken from a pool when the writer is made and given back when it is closed,
+ * so there are never more buffers than writers open at the same time.
+ * <p>
+ * Text and numbers are appended piece by piece, so a line never has to be put together as a String first.
+ * {@link #write(String, Content)} writes one file, {@link #write_changed(Map, Map, ExecutorService)} writes several files at the same time
+ * and leaves files alone when their content is the same as before.
+ */
+public class PredicateWriter implements Closeable {
+    public static final String HEADER = "/* -*- Mode:Prolog; coding:utf-8; -*- */";
+    // put in front of every digest, so a change of algorithm is seen as a change
+    public static final String DIGEST_NAME = "sha256";
+    private static final int BUFFER_SIZE = 1 << 22;
+    // buffers of closed writers, ready for the next writer
+    private static final ConcurrentLinkedQueue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The content of one output file, written line by line into the writer
+     */
+    public interface Content {
+        void write_to(PredicateWriter out) throws IOException;
+
+        /**
+         * @param predicates the lines of the file, in the order they are written
+         * @return content that writes one predicate per line
+         */
+        static Content of(List<String> predicates) {
+            return out -> {
+                for (String predicate : predicates) {
+                    out.line(predicate);
+                }
+            };
+        }
+    }
+
+    private final FileChannel channel;
+    // digest of everything written, null if it is not needed
+    private final MessageDigest digest;
+    // null once the writer is closed and the buffer is back in the pool
+    private ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long bytes_written;
+    private long lines_written;
+    // flight recorder event of the write, committed when the writer is closed
+    private final FileWriteEvent event = new FileWriteEvent();
+
+    /**
+     * Creates or truncates the file and writes the Prolog header line
+     *
+     * @param file path to the file
+     * @throws IOException if the file can not be opened
+     */
+    public PredicateWriter(Path file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Creates or truncates the file and writes the Prolog header line
+     *
+     * @param file   path to the file
+     * @param digest updated with every byte written to the file, may be null
+     * @throws IOException if the file can not be opened
+     */
+    public PredicateWriter(Path file, MessageDigest digest) throws IOException {
+        event.begin();
+        event.file = file.toString();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.digest = digest;
+        var pooled = BUFFERS.poll();
+        buffer = pooled != null ? pooled : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        line(HEADER);
+    }
+
+    /**
+     * Writes the files at the same time on the executor, each into a temporary file next to it. The temporary file only replaces
+     * the file when the file is missing or its digest is not the old one, so an unchanged file is never touched.
+     * An error in one file does not stop the others, and leaves that file as it was.
+     *
+     * @param files       path of each file and what to write in it
+     * @param old_digests path to the digest of the file as it was last written, as DIGEST_NAME:hex
+     * @param executor    runs the writes, shared with the rest of the conversion and left running,
+     *                    must not be an executor the calling thread is one of the threads of
+     * @return path to the digest of every file that was written without error, and whether the file was replaced
+     */
+    public static Map<String, Pair<String, Boolean>> write_changed(Map<String, Content> files, Map<String, String> old_digests, ExecutorService executor) {
+        var written = new ConcurrentHashMap<String, Pair<String, Boolean>>();
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (var file : files.entrySet()) {
+                futures.add(executor.submit(() -> {
+                    var path = Paths.get(file.getKey());
+                    var temp = path.resolveSibling(path.getFileName() + ".tmp");
+                    var digest = new_digest();
+                    try (var out = new PredicateWriter(temp, digest)) {
+                        file.getValue().write_to(out);
+                    } catch (IOException | RuntimeException e) {
+                        Files.deleteIfExists(temp);
+                        throw e;
+                    }
+                    var new_digest = DIGEST_NAME + ":" + HexFormat.of().formatHex(digest.digest());
+                    var replace = !Files.exists(path) || !new_digest.equals(old_digests.get(file.getKey()));
+                    if (replace) {
+                        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } else {
+                        Files.delete(temp);
+                    }
+                    written.put(file.getKey(), Pair.of(new_digest, replace));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    System.out.println("******** IOException " + e.getCause());
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        var result = new LinkedHashMap<String, Pair<String, Boolean>>();
+        for (String file : files.keySet()) {
+            if (written.containsKey(file)) {
+                result.put(file, written.get(file));
+            }
+        }
+        return result;
+    }
+
+    static MessageDigest new_digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes one file
+     *
+     * @param file    path of the file
+     * @param content what to write after the header
+     * @return number of bytes in the file
+     * @throws IOException if the file can not be written
+     */
+    public static long write(String file, Content content) throws IOException {
+        try (var out = new PredicateWriter(Paths.get(file))) {
+            content.write_to(out);
+            out.flush();
+            return out.getBytes_written();
+        }
+    }
+
+    /**
+     * Appends text, ASCII is copied byte by byte and anything else goes through the UTF-8 encoder
+     */
+    public PredicateWriter append(CharSequence text) throws IOException {
+        var length = text.length();
+        for (int i = 0; i < length; i++) {
+            var c = text.charAt(i);
+            if (c >= 0x80) {
+                encode(CharBuffer.wrap(text, i, length));
+                return this;
+            }
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) c);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a number as decimal digits
+     */
+    public PredicateWriter append(int number) throws IOException {
+        if (buffer.remaining() < 11) {
+            drain();
+        }
+        if (number < 0) {
+            if (number == Integer.MIN_VALUE) {
+                return append(Integer.toString(number));
+            }
+            buffer.put((byte) '-');
+            number = -number;
+        }
+        var digits = 1;
+        for (var rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        var end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + number % 10));
+            number /= 10;
+        }
+        buffer.position(end);
+        return this;
+    }
+
+    /**
+     * Ends the current line
+     */
+    public PredicateWriter end_line() throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) '\n');
+        lines_written++;
+        return this;
+    }
+
+    /**
+     * Appends the text as a line of its own
+     */
+    public PredicateWriter line(CharSequence text) throws IOException {
+        return append(text).end_line();
+    }
+
+    /**
+     * @return bytes written to the file so far, counting what is still in the buffer
+     */
+    public long getBytes_written() {
+        return bytes_written + buffer.position();
+    }
+
+    /**
+     * @return lines ended so far, counting the header line
+     */
+    public long getLines_written() {
+        return lines_written;
+    }
+
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            BUFFERS.offer(buffer.clear());
+            buffer = null;
+            channel.close();
+            event.end();
+            if (event.shouldCommit()) {
+                event.lines = lines_written;
+                event.bytes = bytes_written;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Encodes the chars as the end of the input, so a lone surrogate at the end is written as '?' like FileWriter did,
+     * and leaves the encoder ready for the next append
+     */
+    private void encode(CharBuffer chars) throws IOException {
+        while (encoder.encode(chars, buffer, true).isOverflow()) {
+            drain();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+        encoder.reset();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        if (digest != null) {
+            digest.update(buffer.duplicate());
+        }
+        while (buffer.hasRemaining()) {
+            bytes_written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,137 @@
+package no.busstuc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes what a run cost as JSON, so the runs of one night can be compared with those of the next:
+ * <pre>
+ * {
+ *   "version": 1, "finished": "2022-05-02T03:00:00Z", "elapsed_msec": 5120, "peak_heap_bytes": 123456,
+ *   "feeds": [{"adm_code": "r160", "data_path": ..., "out_dir": ..., "failed": false, "elapsed_msec": 5000,
+ *              "changed_files": ["regdep.pl"], "phases": [PHASE, ...]}],
+ *   "steps": [PHASE, ...]
+ * }
+ * </pre>
+ * where a PHASE is {"name", "start_msec", "wall_msec", "cpu_msec", "allocated_bytes", "peak_heap_bytes", "counts": {...}}.
+ * The steps are what is done once for all the feeds, such as updating route_period.pl and version.pl,
+ * their start_msec is from the start of the first step instead of the start of a conversion.
+ * A time or size the JVM does not measure is null.
+ */
+public class RunReport {
+    // Raise when a field is renamed or changes meaning, so graphs can tell the reports apart
+    static final int VERSION = 1;
+
+    private RunReport() {
+    }
+
+    /**
+     * Writes the report through a temporary file, so it is never seen half written
+     *
+     * @param path         path to the report
+     * @param results      the results of the feeds
+     * @param steps        metrics of the steps done for all the feeds
+     * @param elapsed_msec time the whole run took
+     * @throws IOException if the report can not be written
+     */
+    public static void write(Path path, List<ConversionResult> results, List<PhaseMetrics> steps, long elapsed_msec) throws IOException {
+        var json = new StringBuilder("{\n");
+        json.append("  \"version\": ").append(VERSION).append(",\n");
+        json.append("  \"finished\": ").append(string(Instant.now().toString())).append(",\n");
+        json.append("  \"elapsed_msec\": ").append(elapsed_msec).append(",\n");
+        json.append("  \"peak_heap_bytes\": ").append(PhaseMetrics.peak_heap()).append(",\n");
+        json.append("  \"feeds\": [");
+        for (int i = 0; i < results.size(); i++) {
+            var result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\n");
+            json.append("      \"adm_code\": ").append(string(result.getAdm_code())).append(",\n");
+            json.append("      \"data_path\": ").append(string(result.getConfig().getData_path())).append(",\n");
+            json.append("      \"out_dir\": ").append(string(result.getOut_dir() == null ? null : result.getOut_dir().getAbsolutePath())).append(",\n");
+            json.append("      \"failed\": ").append(result.isFailed()).append(",\n");
+            if (result.isFailed()) {
+                json.append("      \"failure\": ").append(string(result.getFailure().toString())).append(",\n");
+            } else {
+                json.append("      \"starting_date\": ").append(string(result.getStarting_date().toString())).append(",\n");
+                json.append("      \"ending_date\": ").append(string(result.getEnding_date().toString())).append(",\n");
+            }
+            json.append("      \"elapsed_msec\": ").append(result.getElapsed_msec()).append(",\n");
+            json.append("      \"changed_files\": [");
+            for (int j = 0; j < result.getChanged_files().size(); j++) {
+                json.append(j == 0 ? "" : ", ").append(string(result.getChanged_files().get(j)));
+            }
+            json.append("],\n");
+            json.append("      \"phases\": ");
+            phases(json, result.getPhases(), "      ");
+            json.append("\n    }");
+        }
+        json.append(results.isEmpty() ? "],\n" : "\n  ],\n");
+        json.append("  \"steps\": ");
+        phases(json, steps, "  ");
+        json.append("\n}\n");
+
+        var temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temp, json, StandardCharsets.UTF_8);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void phases(StringBuilder json, List<PhaseMetrics> phases, String indent) {
+        json.append('[');
+        for (int i = 0; i < phases.size(); i++) {
+            var phase = phases.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(indent).append("  {");
+            json.append("\"name\": ").append(string(phase.getName()));
+            json.append(", \"start_msec\": ").append(msec(phase.getStart_nanos()));
+            json.append(", \"wall_msec\": ").append(msec(phase.getWall_nanos()));
+            json.append(", \"cpu_msec\": ").append(phase.getCpu_nanos() < 0 ? "null" : msec(phase.getCpu_nanos()));
+            json.append(", \"allocated_bytes\": ").append(phase.getAllocated_bytes() < 0 ? "null" : Long.toString(phase.getAllocated_bytes()));
+            json.append(", \"peak_heap_bytes\": ").append(phase.getPeak_heap_bytes());
+            json.append(", \"counts\": {");
+            var first = true;
+            for (Map.Entry<String, Long> count : phase.getCounts().entrySet()) {
+                json.append(first ? "" : ", ").append(string(count.getKey())).append(": ").append(count.getValue());
+                first = false;
+            }
+            json.append("}}");
+        }
+        json.append(phases.isEmpty() ? "]" : "\n" + indent + "]");
+    }
+
+    private static String msec(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * @return the value as a JSON string, or null
+     */
+    static String string(String value) {
+        if (value == null) {
+            return "null";
+        }
+        var json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,157 @@
+package no.busstuc;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Holds the stop visits of all segments in int columns, one row per visit.
+ * <p>
+ * A segment is a slice of rows, seen through a {@link PasSegment}. Rows are added to the pending segment at the
+ * end of the store. When the pending segment turns out to be a duplicate it is rolled back, so the store only
+ * grows with the unique trip patterns.
+ */
+public class SegmentStore {
+    private int[] stops = new int[1024];
+    private int[] seqs = new int[1024];
+    private int[] arrs = new int[1024];
+    private int[] deps = new int[1024];
+    private int size = 0;
+    private int pending_start = 0;
+
+    public SegmentStore() {
+    }
+
+    private SegmentStore(int[] stops, int[] seqs, int[] arrs, int[] deps) {
+        this.stops = stops;
+        this.seqs = seqs;
+        this.arrs = arrs;
+        this.deps = deps;
+        this.size = stops.length;
+        this.pending_start = size;
+    }
+
+    /**
+     * Starts a new pending segment after the rows already in the store
+     */
+    public void start() {
+        pending_start = size;
+    }
+
+    /**
+     * Adds a stop visit to the pending segment
+     *
+     * @param stop numeric stop id
+     * @param seq  stop_sequence
+     * @param arr  minutes after the first stop
+     * @param dep  minutes after the first stop
+     */
+    public void add(int stop, int seq, int arr, int dep) {
+        if (size == stops.length) {
+            var capacity = size * 2;
+            stops = Arrays.copyOf(stops, capacity);
+            seqs = Arrays.copyOf(seqs, capacity);
+            arrs = Arrays.copyOf(arrs, capacity);
+            deps = Arrays.copyOf(deps, capacity);
+        }
+        stops[size] = stop;
+        seqs[size] = seq;
+        arrs[size] = arr;
+        deps[size] = dep;
+        size++;
+    }
+
+    /**
+     * @param seg_id id to give the segment
+     * @return a view of the rows added since start
+     */
+    public PasSegment pending(int seg_id) {
+        return new PasSegment(this, seg_id, pending_start, size - pending_start);
+    }
+
+    /**
+     * Removes the rows added since start
+     */
+    public void rollback() {
+        size = pending_start;
+    }
+
+    /**
+     * @return number of rows in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param stat_ids stop id to stat name
+     * @return the stat name of the stop in every row, "null" where the stop has no stat name
+     */
+    public String[] stat_names(Map<Integer, String> stat_ids) {
+        var names = new String[size];
+        for (int row = 0; row < size; row++) {
+            names[row] = String.valueOf(stat_ids.get(stops[row]));
+        }
+        return names;
+    }
+
+    int stop(int row) {
+        return stops[row];
+    }
+
+    int seq(int row) {
+        return seqs[row];
+    }
+
+    int arr(int row) {
+        return arrs[row];
+    }
+
+    int dep(int row) {
+        return deps[row];
+    }
+
+    /**
+     * Compares two slices on stop, arr and dep, the same fields a trip pattern is made of
+     */
+    boolean equal_rows(int offset, int other_offset, int length) {
+        for (int i = 0; i < length; i++) {
+            var a = offset + i;
+            var b = other_offset + i;
+            if (stops[a] != stops[b] || arrs[a] != arrs[b] || deps[a] != deps[b]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int hash_rows(int offset, int length) {
+        var hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + ((31 * stops[i] + arrs[i]) * 31 + deps[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * Writes the rows as: size, then the stop, seq, arr and dep columns
+     */
+    void write_to(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        FeedSnapshot.write_ints(out, stops, size);
+        FeedSnapshot.write_ints(out, seqs, size);
+        FeedSnapshot.write_ints(out, arrs, size);
+        FeedSnapshot.write_ints(out, deps, size);
+    }
+
+    /**
+     * Reads a store written by write_to
+     */
+    static SegmentStore read_from(ByteBuffer in) {
+        var size = in.getInt();
+        return new SegmentStore(FeedSnapshot.read_ints(in, size), FeedSnapshot.read_ints(in, size),
+                FeedSnapshot.read_ints(in, size), FeedSnapshot.read_ints(in, size));
+    }
+}
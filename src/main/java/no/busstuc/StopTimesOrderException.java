@@ -0,0 +1,12 @@
+package no.busstuc;
+
+/**
+ * Thrown when stop_times.txt is not grouped by trip in stop_sequence order, it can then be read again through a {@link StopTimesSorter}
+ */
+public class StopTimesOrderException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public StopTimesOrderException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,273 @@
+package no.busstuc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static no.busstuc.GTFS_ToBussTUC.STOP_TIMES_COLUMNS;
+
+/**
+ * Sorts stop_times.txt so the rows of each trip come together in stop_sequence order, the order
+ * {@link GTFS_ToBussTUC#make_pas_segments(GtfsCsvReader, FeedSymbols)} reads them in, using at most a given amount of memory.
+ * <p>
+ * Rows are read until the memory budget is used, sorted and spilled to a run file, and the runs are then merged
+ * a few at a time into a CSV file of the STOP_TIMES_COLUMNS. Trips are kept in the order they first appear and rows
+ * with the same stop_sequence in the order they were read, so a file that is already sorted comes out the same.
+ * Of the rows of a trip with the same stop_sequence only the first is kept, as GTFS does not allow more than one.
+ * The trip_ids are kept in memory outside the budget, one entry per trip.
+ */
+public class StopTimesSorter {
+    // runs merged at once, more runs are merged in several passes
+    static final int MAX_FAN_IN = 64;
+    // estimated bytes a row takes in memory besides its text
+    private static final int ROW_OVERHEAD = 80;
+    private static final int TRIP_ID = 0, STOP_ID = 1, ARRIVAL_TIME = 2, DEPARTURE_TIME = 3, STOP_SEQUENCE = 4;
+
+    private final long memory_budget;
+    private final Path temp_dir;
+
+    /**
+     * @param memory_budget bytes the rows kept in memory may take
+     * @param temp_dir      folder the run files and the sorted file are made in
+     */
+    public StopTimesSorter(long memory_budget, Path temp_dir) {
+        this.memory_budget = memory_budget;
+        this.temp_dir = temp_dir;
+    }
+
+    /**
+     * Reads every row and writes them grouped by trip and sorted by stop_sequence to a new file
+     *
+     * @param stop_times reader over stop_times.txt opened with STOP_TIMES_COLUMNS
+     * @return the sorted file, delete it when it has been read
+     * @throws IOException if stop_times.txt can not be read or the files can not be written
+     */
+    public Path sort(GtfsCsvReader stop_times) throws IOException {
+        var trips = new HashMap<String, Integer>();
+        var rows = new ArrayList<Row>();
+        var runs = new ArrayList<Path>();
+        // every run file made, deleted when done
+        var run_files = new ArrayList<Path>();
+        var sorted = Files.createTempFile(temp_dir, "stop_times", ".txt");
+        try {
+            var used = 0L;
+            while (stop_times.next()) {
+                var trip_id = stop_times.getString(TRIP_ID);
+                var trip = trips.computeIfAbsent(trip_id, id -> trips.size());
+                var seq = stop_times.getInt(STOP_SEQUENCE);
+                var line = field(trip_id) + "," + field(stop_times.getString(STOP_ID)) + "," + field(stop_times.getString(ARRIVAL_TIME))
+                        + "," + field(stop_times.getString(DEPARTURE_TIME)) + "," + seq;
+                rows.add(new Row(trip, seq, line));
+                used += ROW_OVERHEAD + line.length();
+                if (used >= memory_budget) {
+                    runs.add(spill(rows, run_files));
+                    rows.clear();
+                    used = 0;
+                }
+            }
+            PhaseMetrics.count("rows_sorted", stop_times.getRows());
+            rows.sort(Row.ORDER);
+            if (runs.isEmpty()) {
+                // everything fit in the budget, nothing was spilled
+                write_sorted(rows.iterator(), sorted);
+                return sorted;
+            }
+            if (!rows.isEmpty()) {
+                runs.add(spill(rows, run_files));
+            }
+            PhaseMetrics.count("runs", runs.size());
+            while (runs.size() > MAX_FAN_IN) {
+                var merged = new ArrayList<Path>();
+                for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                    var group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                    merged.add(group.size() == 1 ? group.get(0) : merge_to_run(group, run_files));
+                }
+                runs = merged;
+            }
+            try (var merge = new Merge(runs)) {
+                write_sorted(merge, sorted);
+            }
+            return sorted;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(sorted);
+            throw e;
+        } finally {
+            for (Path run : run_files) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * Sorts the rows and writes them to a new run file
+     */
+    private Path spill(ArrayList<Row> rows, List<Path> run_files) throws IOException {
+        rows.sort(Row.ORDER);
+        var run = new_run(run_files);
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (Row row : rows) {
+                row.write_to(out);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges the runs into one new run file and deletes them
+     */
+    private Path merge_to_run(List<Path> runs, List<Path> run_files) throws IOException {
+        var run = new_run(run_files);
+        try (var merge = new Merge(runs); var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            while (merge.hasNext()) {
+                merge.next().write_to(out);
+            }
+        }
+        for (Path merged : runs) {
+            Files.delete(merged);
+        }
+        return run;
+    }
+
+    private Path new_run(List<Path> run_files) throws IOException {
+        var run = Files.createTempFile(temp_dir, "stop_times", ".run");
+        run_files.add(run);
+        return run;
+    }
+
+    /**
+     * Writes the header and the rows in the order they come, leaving out repeated stop_sequences of a trip
+     */
+    private static void write_sorted(Iterator<Row> rows, Path file) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(String.join(",", STOP_TIMES_COLUMNS));
+            out.write('\n');
+            Row last = null;
+            while (rows.hasNext()) {
+                var row = rows.next();
+                if (last != null && last.trip == row.trip && last.seq == row.seq) {
+                    continue;
+                }
+                out.write(row.line);
+                out.write('\n');
+                last = row;
+            }
+        }
+    }
+
+    /**
+     * @return the value as a CSV field, quoted if it has to be
+     */
+    private static String field(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+        }
+        return value;
+    }
+
+    /**
+     * A row of stop_times.txt, the trip is numbered in the order the trips first appear
+     */
+    private static class Row {
+        static final Comparator<Row> ORDER = Comparator.<Row>comparingInt(row -> row.trip).thenComparingInt(row -> row.seq);
+
+        private final int trip;
+        private final int seq;
+        // the row as CSV in the order of STOP_TIMES_COLUMNS
+        private final String line;
+
+        Row(int trip, int seq, String line) {
+            this.trip = trip;
+            this.seq = seq;
+            this.line = line;
+        }
+
+        void write_to(DataOutputStream out) throws IOException {
+            out.writeInt(trip);
+            out.writeInt(seq);
+            out.writeUTF(line);
+        }
+    }
+
+    /**
+     * The rows of several run files in order, a row of an earlier run comes first when their trip and stop_sequence are equal
+     */
+    private static class Merge implements Iterator<Row>, AutoCloseable {
+        private final ArrayList<DataInputStream> ins = new ArrayList<>();
+        // the next row of every run that is not used up, and the index of its run
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.<Head, Row>comparing(head -> head.row, Row.ORDER).thenComparingInt(head -> head.run));
+
+        Merge(List<Path> runs) throws IOException {
+            try {
+                for (Path run : runs) {
+                    ins.add(new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16)));
+                    advance(ins.size() - 1);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void advance(int run) throws IOException {
+            var in = ins.get(run);
+            int trip;
+            try {
+                trip = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            heads.add(new Head(new Row(trip, in.readInt(), in.readUTF()), run));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Row next() {
+            var head = heads.poll();
+            try {
+                advance(head.run);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return head.row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (DataInputStream in : ins) {
+                in.close();
+            }
+        }
+
+        private static class Head {
+            private final Row row;
+            private final int run;
+
+            Head(Row row, int run) {
+                this.row = row;
+                this.run = run;
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package no.busstuc;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * The seg_id and first departure of every trip in stop_times.txt, found by the handle of the trip
+ * in {@link FeedSymbols} when the regdep lines are made.
+ * <p>
+ * An index loaded from a {@link FeedSnapshot} is kept by row of trips.txt, and its trips are only given handles
+ * when it is first used, so loading it interns no trip_ids. Like the rest of the index this is not thread safe.
+ */
+public class TripIndex {
+    private int[] seg_ids = new int[1024];
+    // minutes since midnight
+    private int[] departures = new int[1024];
+    private int size = 0;
+    // trips.txt and the seg_id and departure of the trip of each row, put in by handle when first used, null once they are
+    private Supplier<GtfsTable> pending_trips;
+    private int[] pending_seg_ids;
+    private int[] pending_departures;
+    private FeedSymbols pending_ids;
+    // number of trips in the pending rows
+    private int pending_size;
+
+    public TripIndex() {
+        Arrays.fill(seg_ids, -1);
+    }
+
+    /**
+     * Adds the trips of rows of trips.txt that are not in the index yet, they are put in when the index is next used
+     *
+     * @param trips      trips.txt, asked for when the index is next used
+     * @param seg_ids    seg_id of the trip of every row, -1 for a trip that is not to be added
+     * @param departures departure of the trip of every row
+     * @param count      number of trips added
+     * @param ids        the ids the trips get their handles from
+     */
+    void put_rows(Supplier<GtfsTable> trips, int[] seg_ids, int[] departures, int count, FeedSymbols ids) {
+        if (pending_trips != null) {
+            resolve();
+        }
+        pending_trips = trips;
+        pending_seg_ids = seg_ids;
+        pending_departures = departures;
+        pending_size = count;
+        pending_ids = ids;
+    }
+
+    /**
+     * Puts in the pending rows of trips.txt
+     */
+    private void resolve() {
+        var trips = pending_ids.trips(pending_trips.get(), "trip_id");
+        var seg_ids = pending_seg_ids;
+        var departures = pending_departures;
+        pending_trips = null;
+        pending_seg_ids = null;
+        pending_departures = null;
+        pending_size = 0;
+        pending_ids = null;
+        for (int row = 0; row < trips.length; row++) {
+            if (seg_ids[row] != -1) {
+                put(trips[row], seg_ids[row], departures[row]);
+            }
+        }
+    }
+
+    /**
+     * Adds a trip, a trip that is already in the index keeps the departure of its first occurrence
+     *
+     * @param trip      handle of the trip
+     * @param seg_id    seg_id of its segment
+     * @param departure departure from the first stop in minutes since midnight
+     */
+    public void put(int trip, int seg_id, int departure) {
+        if (pending_trips != null) {
+            resolve();
+        }
+        if (trip >= seg_ids.length) {
+            var old_length = seg_ids.length;
+            var capacity = Math.max(trip + 1, old_length * 2);
+            seg_ids = Arrays.copyOf(seg_ids, capacity);
+            departures = Arrays.copyOf(departures, capacity);
+            Arrays.fill(seg_ids, old_length, capacity, -1);
+        }
+        if (seg_ids[trip] == -1) {
+            departures[trip] = departure;
+            size++;
+        }
+        seg_ids[trip] = seg_id;
+    }
+
+    public boolean contains(int trip) {
+        if (pending_trips != null) {
+            resolve();
+        }
+        return trip < seg_ids.length && seg_ids[trip] != -1;
+    }
+
+    public int seg_id(int trip) {
+        if (pending_trips != null) {
+            resolve();
+        }
+        return seg_ids[trip];
+    }
+
+    public int departure(int trip) {
+        if (pending_trips != null) {
+            resolve();
+        }
+        return departures[trip];
+    }
+
+    /**
+     * @return number of trips in the index
+     */
+    public int size() {
+        return size + pending_size;
+    }
+
+    /**
+     * @return handles of the trips in the index, lowest first
+     */
+    public int[] trips() {
+        if (pending_trips != null) {
+            resolve();
+        }
+        var trips = new int[size];
+        var index = 0;
+        for (int trip = 0; trip < seg_ids.length; trip++) {
+            if (seg_ids[trip] != -1) {
+                trips[index++] = trip;
+            }
+        }
+        return trips;
+    }
+}
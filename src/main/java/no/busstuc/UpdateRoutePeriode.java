@@ -6,25 +6,42 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.tuple.Triple;
 
 public class UpdateRoutePeriode {
     private static final DateTimeFormatter FORMAT_INN = DateTimeFormatter.ofPattern("yyMMdd");
     public static final DateTimeFormatter FORMAT_OUT = DateTimeFormatter.ofPattern("yyyy,MM,dd");
 
-    private static ArrayList<RoutePeriod> periods;
-
     public static void updateRoutePeriod(String comment, String admCode, String dateFrom, String dateTo, String pathToRoutePeriod){
-        periods = new ArrayList<>();
+        updateRoutePeriods(comment, List.of(Triple.of(admCode, dateFrom, dateTo)), pathToRoutePeriod);
+    }
 
-        var startDate = LocalDate.parse(dateFrom, FORMAT_INN);
-        var endDate = LocalDate.parse(dateTo, FORMAT_INN);
+    /**
+     * Adds several route periods to route_period.pl, reading and writing the file once
+     *
+     * @param comment           comment after each new route period
+     * @param newPeriods        admCode, dateFrom and dateTo of each new route period, dates as yyMMdd
+     * @param pathToRoutePeriod path to route_period.pl
+     */
+    // synchronized since route_period.pl is read and written again by every conversion
+    public static synchronized void updateRoutePeriods(String comment, List<Triple<String, String, String>> newPeriods, String pathToRoutePeriod){
+        var periods = new ArrayList<RoutePeriod>();
 
-        var folderName = admCode.toLowerCase() + "_" + dateFrom;
+        for (Triple<String, String, String> period : newPeriods) {
+            var startDate = LocalDate.parse(period.getMiddle(), FORMAT_INN);
+            var endDate = LocalDate.parse(period.getRight(), FORMAT_INN);
 
-        String new_route = "route_period(   tt, " + folderName + ", date(" + startDate.format(FORMAT_OUT) + "),   date(" + endDate.format(FORMAT_OUT) + ") ).    %% " + comment;
+            var folderName = period.getLeft().toLowerCase() + "_" + period.getMiddle();
 
-        RoutePeriod newPeriod = new RoutePeriod(new_route, endDate);
-        periods.add(newPeriod);
+            String new_route = "route_period(   tt, " + folderName + ", date(" + startDate.format(FORMAT_OUT) + "),   date(" + endDate.format(FORMAT_OUT) + ") ).    %% " + comment;
+
+            RoutePeriod newPeriod = new RoutePeriod(new_route, endDate);
+            if (!periods.contains(newPeriod))
+                periods.add(newPeriod);
+        }
 
         try ( var reader = new BufferedReader( new FileReader(pathToRoutePeriod))) {
             String strLine;
@@ -43,10 +60,10 @@ public class UpdateRoutePeriode {
         }
         periods.sort(null);
 
-        write_routes(pathToRoutePeriod);
+        write_routes(pathToRoutePeriod, periods);
     }
 
-    private static void write_routes(String path) {
+    private static void write_routes(String path, ArrayList<RoutePeriod> periods) {
         try (var outFile = new BufferedWriter( new FileWriter(path))) {
             outFile.write("/* -*- Mode:Prolog; coding:utf-8; -*- */\n");
 
@@ -89,11 +106,18 @@ public class UpdateRoutePeriode {
 }
 
 class RoutePeriod implements Comparable<RoutePeriod>{
+    // the route module and the two dates, found by pattern since the length of the admin code varies
+    private static final Pattern ROUTE_PERIOD = Pattern.compile("route_period\\(\\s*\\w+,\\s*(\\w+),\\s*date\\((\\d{4},\\d{2},\\d{2})\\),\\s*date\\((\\d{4},\\d{2},\\d{2})\\)");
+    private static final String NO_DATE = "2012,12,12";
+
     private final String route;
+    private String module = "";
+    private LocalDate start_date;
     private LocalDate end_date;
 
     public RoutePeriod(String route, LocalDate end_date) {
         this.route = route;
+        setDate();
         this.end_date = end_date;
     }
 
@@ -103,14 +127,22 @@ class RoutePeriod implements Comparable<RoutePeriod>{
     }
 
     private void setDate() {
-        String date_string;
-        switch (route.substring(0,5)) {
-            case "route" -> date_string = route.substring(58,68);
-            case "%rout" -> date_string = route.substring(59,69);
-            case "%%rou" -> date_string = route.substring(60,70);
-            default -> date_string = "2012,12,12";
+        var matcher = ROUTE_PERIOD.matcher(route);
+        if (matcher.find()) {
+            module = matcher.group(1);
+            start_date = LocalDate.parse(matcher.group(2), UpdateRoutePeriode.FORMAT_OUT);
+            end_date = LocalDate.parse(matcher.group(3), UpdateRoutePeriode.FORMAT_OUT);
+        } else {
+            start_date = LocalDate.parse(NO_DATE, UpdateRoutePeriode.FORMAT_OUT);
+            end_date = start_date;
         }
-        this.end_date = LocalDate.parse(date_string, UpdateRoutePeriode.FORMAT_OUT);
+    }
+
+    /**
+     * @return the route module of the period, such as r160_220502
+     */
+    public String getModule() {
+        return module;
     }
 
     public LocalDate getEnd_date() {
@@ -118,15 +150,7 @@ class RoutePeriod implements Comparable<RoutePeriod>{
     }
 
     public LocalDate getStart_date() {
-        String date_string;
-        switch (route.substring(0, 5)) {
-            case "route" -> date_string = route.substring(38,48);
-            case "%rout" -> date_string = route.substring(39,49);
-            case "%%rou" -> date_string = route.substring(40,50);
-            default -> date_string = "2012,12,12";
-        }
-
-        return LocalDate.parse(date_string, UpdateRoutePeriode.FORMAT_OUT);
+        return start_date;
     }
 
     @Override
@@ -134,15 +158,22 @@ class RoutePeriod implements Comparable<RoutePeriod>{
         return this.route;
     }
 
+    // periods of different admin codes may share dates, so the module is part of what makes a period
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof RoutePeriod) {
-            return ((RoutePeriod) obj).getStart_date().equals(this.getStart_date()) && ((RoutePeriod) obj).getEnd_date().equals(this.getEnd_date());
+            var other = (RoutePeriod) obj;
+            return other.getModule().equals(this.getModule()) && other.getStart_date().equals(this.getStart_date()) && other.getEnd_date().equals(this.getEnd_date());
         }
 
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return (module.hashCode() * 31 + start_date.hashCode()) * 31 + end_date.hashCode();
+    }
+
     @Override
     public int compareTo(RoutePeriod o) {
         if( this.getEnd_date() == null || o.getEnd_date() == null ){
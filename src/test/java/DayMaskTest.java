@@ -0,0 +1,33 @@
+import no.busstuc.DayMask;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DayMaskTest {
+    @Test
+    void set() {
+        var mask = new DayMask(130);
+        assertEquals("0".repeat(130), mask.toString());
+
+        mask.set(0, true);
+        mask.set(63, true);
+        mask.set(64, true);
+        mask.set(129, true);
+        assertTrue(mask.get(63));
+        assertTrue(mask.get(64));
+        assertFalse(mask.get(65));
+        assertEquals("1" + "0".repeat(62) + "11" + "0".repeat(64) + "1", mask.toString());
+
+        // removing every valid day leaves a mask equal to a new one
+        for (int day : new int[]{0, 63, 64, 129}) {
+            mask.set(day, false);
+        }
+        assertEquals(new DayMask(130), mask);
+        assertEquals(new DayMask(130).hashCode(), mask.hashCode());
+        assertNotEquals(new DayMask(131), mask);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> mask.set(-1, true));
+        assertThrows(IndexOutOfBoundsException.class, () -> mask.set(130, true));
+        assertThrows(IndexOutOfBoundsException.class, () -> mask.get(130));
+    }
+}
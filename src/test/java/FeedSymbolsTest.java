@@ -0,0 +1,43 @@
+import no.busstuc.FeedSymbols;
+import no.busstuc.GtfsCsvReader;
+import no.busstuc.GtfsTable;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedSymbolsTest {
+    @Test
+    void trips() {
+        var ids = new FeedSymbols();
+        var trips = ids.trips(new String[]{"ATB:ServiceJourney:3_230306_1", "ATB:ServiceJourney:71_1_2", "ATB:ServiceJourney:3_230306_1"});
+
+        assertEquals(trips[0], trips[2]);
+        assertNotEquals(trips[0], trips[1]);
+        assertArrayEquals(new String[]{"3", "71", "3"}, ids.lines(trips));
+        assertEquals(Math.abs("ATB:ServiceJourney:71_1_2".hashCode()), ids.trip_hashes(trips)[1]);
+        assertEquals("ATB:ServiceJourney:71_1_2", ids.trip_id(trips[1]));
+        assertEquals(trips[1], ids.trip("ATB:ServiceJourney:71_1_2"));
+    }
+
+    @Test
+    void stops_and_services() throws IOException {
+        var text = "stop_id,service_id\nNSR:Quay:71234,ATB:DayType:0_12\nNSR:StopPlace:5000,ATB:DayType:0_12\n";
+        GtfsTable table;
+        try (var reader = GtfsCsvReader.open(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), "stop_id", "service_id")) {
+            table = GtfsTable.read(reader, "stop_id", "service_id");
+        }
+        var ids = new FeedSymbols();
+
+        var stops = ids.stops(table, "stop_id");
+        assertEquals(71234, ids.stop_number(stops[0]));
+        assertFalse(ids.is_stop_place(stops[0]));
+        assertTrue(ids.is_stop_place(stops[1]));
+        assertArrayEquals(new String[]{"012", "012"}, ids.day_codes(ids.services(table, "service_id")));
+        assertEquals(71234, FeedSymbols.id_number("NSR:Quay:71234"));
+        assertThrows(NumberFormatException.class, () -> FeedSymbols.id_number("NSR:Quay"));
+    }
+}
@@ -1,10 +1,18 @@
+import no.busstuc.FeedSymbols;
 import no.busstuc.GTFS_ToBussTUC;
+import no.busstuc.GtfsCsvReader;
+import no.busstuc.GtfsTable;
 import no.busstuc.UpdateRoutePeriode;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -52,4 +60,80 @@ class GTFS_ToBussTUCTest {
             fail();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void make_regdko_list() throws IOException {
+        var calendar = calendar("ATB:DayType:0_1,1,1,1,1,1,0,0,20220502,20220515",
+                "ATB:DayType:0_3,0,0,0,0,0,1,0,20220502,20220509");
+        var calendar_dates = calendar_dates("ATB:DayType:0_1,20220504,2",
+                "ATB:DayType:0_1,20220507,1",
+                "ATB:DayType:0_3,20220507,2",
+                "ATB:DayType:0_4,20220510,2",
+                "ATB:DayType:0_6,20220511,1");
+        var result = GTFS_ToBussTUC.make_regdko_list(calendar, calendar_dates, LocalDate.of(2022, 5, 2), new FeedSymbols());
+
+        // 0_1 loses a Wednesday and gains a Saturday, the added day ends the period,
+        // 0_3 loses its only Saturday and 0_4 only has a removed date, so both are empty and 0_4 takes the day code of 0_3
+        assertEquals(List.of("dkodate(220502,1).",
+                "dko(01,220502,220508,1111100,1111100,1111100,1111100,'" + mask("11011101111100") + "').",
+                "dko(03,220502,220509,0000010,0000010,0000010,0000010,'" + mask("") + "').",
+                "dko(03,220509,220511,Special,Special,Special,Special,'" + mask("") + "').",
+                "dko(06,220509,220512,Special,Special,Special,Special,'" + mask("0000000001") + "')."), result.getLeft());
+        assertEquals(Map.of("04", "03"), result.getRight());
+    }
+
+    @Test
+    void make_regdko_list_outside_mask() throws IOException {
+        var calendar = calendar("ATB:DayType:0_1,1,1,1,1,1,0,0,20220502,20220515");
+        var starting_date = LocalDate.of(2022, 5, 2);
+
+        // a date past the calendar period but inside the mask is applied
+        var later = GTFS_ToBussTUC.make_regdko_list(calendar, calendar_dates("ATB:DayType:0_1,20220601,1"), starting_date, new FeedSymbols());
+        assertEquals("dko(01,220502,220602,1111100,1111100,1111100,1111100,'" + mask("1111100111110" + "0".repeat(17) + "1") + "').", later.getLeft().get(1));
+
+        // dates before the dkodate or past the end of the mask have no day to set
+        for (String date : List.of("20220501", "20230612")) {
+            assertThrows(IndexOutOfBoundsException.class, () -> GTFS_ToBussTUC.make_regdko_list(calendar, calendar_dates("ATB:DayType:0_1," + date + ",2"), starting_date, new FeedSymbols()), date);
+            assertThrows(IndexOutOfBoundsException.class, () -> GTFS_ToBussTUC.make_regdko_list(calendar, calendar_dates("ATB:DayType:0_2," + date + ",1"), starting_date, new FeedSymbols()), date);
+        }
+    }
+
+    @Test
+    void make_regdko_list_merges_equal_days() throws IOException {
+        var calendar = calendar("ATB:DayType:0_5,1,1,1,1,1,0,0,20220502,20220515",
+                "ATB:DayType:0_2,0,0,0,0,0,1,1,20220502,20220515",
+                "ATB:DayType:0_1,1,1,1,1,1,0,0,20220502,20220515",
+                "ATB:DayType:0_7,0,0,0,0,0,1,1,20220502,20220515");
+        var result = GTFS_ToBussTUC.make_regdko_list(calendar, calendar_dates(), LocalDate.of(2022, 5, 2), new FeedSymbols());
+
+        // every group of equal days takes the day code that comes first in calendar.txt, not the lowest one,
+        // and the facts stay sorted as text
+        assertEquals(List.of("dkodate(220502,1).",
+                "dko(02,220502,220515,0000011,0000011,0000011,0000011,'" + mask("0000011000001") + "').",
+                "dko(05,220502,220515,1111100,1111100,1111100,1111100,'" + mask("1111100111110") + "')."), result.getLeft());
+        assertEquals(Map.of("01", "05", "07", "02"), result.getRight());
+    }
+
+    /**
+     * @return the days of a regdko.pl mask, padded with days that are not valid
+     */
+    private static String mask(String days) {
+        return days + "0".repeat(406 - days.length());
+    }
+
+    private static GtfsTable calendar(String... rows) throws IOException {
+        return table("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date", rows);
+    }
+
+    private static GtfsTable calendar_dates(String... rows) throws IOException {
+        return table("service_id,date,exception_type", rows);
+    }
+
+    private static GtfsTable table(String header, String... rows) throws IOException {
+        var text = header + "\n" + String.join("\n", rows) + "\n";
+        var columns = header.split(",");
+        try (var reader = GtfsCsvReader.open(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), columns)) {
+            return GtfsTable.read(reader, columns);
+        }
+    }
+}
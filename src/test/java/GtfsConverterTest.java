@@ -0,0 +1,262 @@
+import no.busstuc.ConversionResult;
+import no.busstuc.ConverterConfig;
+import no.busstuc.FeedSnapshot;
+import no.busstuc.FeedSymbols;
+import no.busstuc.GtfsConverter;
+import no.busstuc.GtfsFeedGenerator;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsConverterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void convert_all() throws IOException {
+        var first = write_feed(dir.resolve("first"), "20220502", "1");
+        var second = write_feed(dir.resolve("second"), "20220905", "2");
+        Files.createDirectories(dir.resolve("out"));
+
+        var first_config = new ConverterConfig(first.toString(), dir.resolve("out").toString());
+        first_config.setUpdate_route_period(false);
+        var second_config = new ConverterConfig(second.toString(), dir.resolve("out").toString());
+        second_config.setUpdate_route_period(false);
+        second_config.setAdm_code("r170");
+
+        var results = GtfsConverter.convert_all(List.of(first_config, second_config), 2);
+
+        assertEquals(LocalDate.of(2022, 5, 2), results.get(0).getStarting_date());
+        assertEquals(LocalDate.of(2022, 9, 5), results.get(1).getStarting_date());
+        assertEquals(dir.resolve("out/r160_220502").toFile(), results.get(0).getOut_dir().getAbsoluteFile());
+        assertEquals(dir.resolve("out/r170_220905").toFile(), results.get(1).getOut_dir().getAbsoluteFile());
+        var first_regdep = Files.readString(dir.resolve("out/r160_220502/regdep.pl"));
+        var second_regdep = Files.readString(dir.resolve("out/r170_220905/regdep.pl"));
+        assertTrue(first_regdep.contains("departureday( bus_1_"));
+        assertFalse(first_regdep.contains("departureday( bus_2_"));
+        assertTrue(second_regdep.contains("departureday( bus_2_"));
+        assertTrue(Files.readString(dir.resolve("out/r170_220905/regpas.pl")).contains("passes4(1, 71001, "));
+    }
+
+    @Test
+    void convert_batch() throws IOException {
+        var first = write_feed(dir.resolve("first"), "20220502", "1");
+        var second = write_feed(dir.resolve("second"), "20220502", "2");
+        var tables = Files.createDirectories(dir.resolve("busstuc/db/tables"));
+
+        var results = GtfsConverter.convert_batch(tables.toString(), List.of(Pair.of(first.toString(), "r160"), Pair.of(second.toString(), "r1700"),
+                Pair.of(dir.resolve("missing").toString(), "r9")), 2, false, true, null, ConverterConfig.DEFAULT_SORT_MEMORY, System.getProperty("java.io.tmpdir"));
+
+        assertFalse(results.get(0).isFailed());
+        assertFalse(results.get(1).isFailed());
+        assertTrue(results.get(2).isFailed());
+        // both periods have the same dates but belong to different route modules
+        var route_period = Files.readString(dir.resolve("busstuc/db/route_period.pl"));
+        assertTrue(route_period.contains("route_period(   tt, r160_220502, date(2022,05,02),   date(2022,05,09) )."));
+        assertTrue(route_period.contains("route_period(   tt, r1700_220502, date(2022,05,02),   date(2022,05,09) )."));
+        assertTrue(Files.exists(dir.resolve("busstuc/version.pl")));
+    }
+
+    @Test
+    void convert_incremental() throws IOException {
+        var feed = write_feed(dir.resolve("feed"), "20220502", "1");
+        var tables = Files.createDirectories(dir.resolve("out"));
+        var config = new ConverterConfig(feed.toString(), tables.toString());
+        config.setUpdate_route_period(false);
+
+        var first = new GtfsConverter(config).convert();
+        assertEquals(6, first.getChanged_files().size());
+        assertTrue(Files.exists(tables.resolve("r160_220502.manifest")));
+        var read_stop_times = first.getPhases().stream().filter(phase -> phase.getName().equals("read stop_times.txt")).findFirst().orElseThrow();
+        assertEquals(Map.of("rows", 2L, "unique_segments", 1L, "trips", 1L), read_stop_times.getCounts());
+        assertTrue(Files.readString(tables.resolve("r160_220502.report.json")).contains("\"name\": \"write files\""));
+        // nothing is built or rendered when no input changed
+        var unchanged = new GtfsConverter(config).convert();
+        assertEquals(List.of(), unchanged.getChanged_files());
+        assertEquals(List.of("fingerprint inputs", "read calendar.txt", "validity", "write files"), phase_names(unchanged));
+        assertEquals(0L, counts(unchanged, "write files").get("files_written"));
+        assertEquals(6L, counts(unchanged, "write files").get("files_skipped"));
+
+        // calendar_dates.txt is an input of regdko, regpas and regdep only
+        Files.writeString(feed.resolve("calendar_dates.txt"), "ATB:DayType:0_0,20220503,2\n", StandardOpenOption.APPEND);
+        var dates_changed = new GtfsConverter(config).convert();
+        assertEquals(List.of("regdko.pl"), dates_changed.getChanged_files());
+        assertEquals(3L, counts(dates_changed, "write files").get("files_written"));
+        assertFalse(phase_names(dates_changed).contains("regbus"));
+
+        Files.delete(tables.resolve("r160_220502/regbus.pl"));
+        assertEquals(List.of("regbus.pl"), new GtfsConverter(config).convert().getChanged_files());
+
+        var regbus = tables.resolve("r160_220502/regbus.pl");
+        Files.writeString(regbus, "%".repeat((int) Files.size(regbus)));
+        assertEquals(List.of("regbus.pl"), new GtfsConverter(config).convert().getChanged_files());
+    }
+
+    @Test
+    void report_phases() throws IOException {
+        var feed = write_feed(dir.resolve("feed"), "20220502", "1");
+        var tables = Files.createDirectories(dir.resolve("out"));
+        var config = new ConverterConfig(feed.toString(), tables.toString());
+        config.setUpdate_route_period(false);
+
+        var result = new GtfsConverter(config).convert();
+        var phases = result.getPhases().stream().collect(Collectors.toMap(phase -> phase.getName(), phase -> phase.getCounts()));
+
+        // the join only counts what it joins, the regpas and regdep lines are rendered and counted while they are written
+        var join = phases.get("join regpas and regdep");
+        assertEquals(1L, join.get("departures_out"));
+        assertTrue(join.keySet().stream().noneMatch(name -> name.startsWith("lines:") || name.startsWith("render_msec:")));
+        var write = phases.get("write files");
+        for (String name : List.of("regpas.pl", "regdep.pl")) {
+            assertTrue(write.containsKey("lines:" + name), name);
+            assertTrue(write.containsKey("render_msec:" + name), name);
+        }
+        assertEquals(1L, write.get("lines:regdep.pl"));
+        assertTrue(Files.readString(tables.resolve("r160_220502.report.json")).contains("\"name\": \"join regpas and regdep\""));
+    }
+
+    @Test
+    void convert_from_snapshot() throws IOException {
+        var feed = write_feed(dir.resolve("feed"), "20220502", "1");
+        var snapshots = dir.resolve("snapshots");
+        var parsed = new ConverterConfig(feed.toString(), Files.createDirectories(dir.resolve("parsed")).toString());
+        parsed.setUpdate_route_period(false);
+        parsed.setSnapshot_dir(snapshots.toString());
+        new GtfsConverter(parsed).convert();
+
+        Path snapshot_path;
+        try (var files = Files.list(snapshots)) {
+            snapshot_path = files.collect(Collectors.toList()).get(0);
+        }
+        var snapshot = FeedSnapshot.open(snapshot_path);
+        assertEquals(1, snapshot.table("trips.txt").size());
+        assertEquals("ATB:ServiceJourney:1_100_0", snapshot.table("trips.txt").row(0).get("trip_id"));
+        var pas_segments = snapshot.pas_segments(new FeedSymbols());
+        assertEquals(1, pas_segments.getLeft().size());
+        assertEquals(1, pas_segments.getRight().size());
+        assertEquals(1, pas_segments.getRight().trips().length);
+        // a snapshot cut short is not found
+        var cut = dir.resolve("cut.snapshot");
+        Files.write(cut, Arrays.copyOf(Files.readAllBytes(snapshot_path), (int) Files.size(snapshot_path) - 1));
+        assertNull(FeedSnapshot.open(cut));
+
+        // a second run reads the snapshot instead of the GTFS files and makes the same files
+        var loaded = new ConverterConfig(feed.toString(), Files.createDirectories(dir.resolve("loaded")).toString());
+        loaded.setUpdate_route_period(false);
+        loaded.setSnapshot_dir(snapshots.toString());
+        new GtfsConverter(loaded).convert();
+        for (String name : List.of("regdko.pl", "regbus.pl", "regcomp.pl", "reghpl.pl", "regpas.pl", "regdep.pl")) {
+            assertEquals(Files.readString(dir.resolve("parsed/r160_220502").resolve(name)), Files.readString(dir.resolve("loaded/r160_220502").resolve(name)), name);
+        }
+    }
+
+    @Test
+    void convert_unsorted_stop_times() throws IOException {
+        var generator = new GtfsFeedGenerator();
+        generator.setTrips(300);
+        generator.setStops_per_trip(10);
+        generator.write(dir.resolve("sorted"));
+        generator.write(dir.resolve("unsorted"));
+        // every first stop, then every second stop and so on, the trips still first appear in the same order
+        var lines = Files.readAllLines(dir.resolve("sorted/stop_times.txt"));
+        var rows = new ArrayList<>(lines.subList(1, lines.size()));
+        rows.sort(Comparator.comparingInt(row -> Integer.parseInt(row.substring(row.lastIndexOf(',') + 1))));
+        rows.add(0, lines.get(0));
+        Files.write(dir.resolve("unsorted/stop_times.txt"), rows);
+
+        var sorted = new ConverterConfig(dir.resolve("sorted").toString(), Files.createDirectories(dir.resolve("sorted_out")).toString());
+        sorted.setUpdate_route_period(false);
+        new GtfsConverter(sorted).convert();
+        var unsorted = new ConverterConfig(dir.resolve("unsorted").toString(), Files.createDirectories(dir.resolve("unsorted_out")).toString());
+        unsorted.setUpdate_route_period(false);
+        // small enough to spill a run every few rows and merge the runs in more than one pass
+        unsorted.setSort_memory(4000);
+        unsorted.setSort_dir(Files.createDirectories(dir.resolve("spill")).toString());
+        var result = new GtfsConverter(unsorted).convert();
+        try (var spilled = Files.list(dir.resolve("spill"))) {
+            assertEquals(0, spilled.count());
+        }
+
+        for (String name : List.of("regpas.pl", "regdep.pl")) {
+            assertEquals(Files.readString(dir.resolve("sorted_out").resolve(result.getOut_dir().getName()).resolve(name)),
+                    Files.readString(result.getOut_dir().toPath().resolve(name)), name);
+        }
+    }
+
+    @Test
+    void convert_non_ascii_trip_ids() throws IOException {
+        var trips = List.of("ATB:ServiceJourney:1_100_Øst", "ATB:ServiceJourney:1_200_Vår");
+        var sorted = write_feed(dir.resolve("sorted"), "20220502", "1");
+        var interleaved = write_feed(dir.resolve("interleaved"), "20220502", "1");
+        for (Path feed : List.of(sorted, interleaved)) {
+            Files.writeString(feed.resolve("trips.txt"), "route_id,service_id,trip_id\n"
+                    + "ATB:Line:1,ATB:DayType:0_0," + trips.get(0) + "\n"
+                    + "ATB:Line:1,ATB:DayType:0_0," + trips.get(1) + "\n");
+        }
+        var rows = new ArrayList<String>();
+        for (String trip : trips) {
+            rows.add(trip + ",07:00:00,07:00:00,NSR:Quay:71000,1");
+            rows.add(trip + ",07:05:00,07:06:00,NSR:Quay:71001,2");
+        }
+        var header = "trip_id,arrival_time,departure_time,stop_id,stop_sequence";
+        Files.write(sorted.resolve("stop_times.txt"), List.of(header, rows.get(0), rows.get(1), rows.get(2), rows.get(3)));
+        Files.write(interleaved.resolve("stop_times.txt"), List.of(header, rows.get(0), rows.get(2), rows.get(1), rows.get(3)));
+
+        var results = new ArrayList<Path>();
+        for (Path feed : List.of(sorted, interleaved)) {
+            var config = new ConverterConfig(feed.toString(), Files.createDirectories(dir.resolve(feed.getFileName() + "_out")).toString());
+            config.setUpdate_route_period(false);
+            var result = new GtfsConverter(config).convert();
+            assertFalse(result.isFailed());
+            results.add(result.getOut_dir().toPath());
+        }
+        assertEquals(2, Files.readAllLines(results.get(0).resolve("regdep.pl")).stream().filter(line -> line.startsWith("departureday(")).count());
+        for (String name : List.of("regpas.pl", "regdep.pl")) {
+            assertEquals(Files.readString(results.get(0).resolve(name)), Files.readString(results.get(1).resolve(name)), name);
+        }
+    }
+
+    /**
+     * Writes a feed of one trip with two stops on the given line, valid for a week from the start date
+     */
+    private static List<String> phase_names(ConversionResult result) {
+        return result.getPhases().stream().map(phase -> phase.getName()).collect(Collectors.toList());
+    }
+
+    private static Map<String, Long> counts(ConversionResult result, String phase_name) {
+        return result.getPhases().stream().filter(phase -> phase.getName().equals(phase_name)).findFirst().orElseThrow().getCounts();
+    }
+
+    private static Path write_feed(Path feed, String start_date, String line) throws IOException {
+        Files.createDirectories(feed);
+        var end_date = LocalDate.parse(start_date, DateTimeFormatter.BASIC_ISO_DATE).plusDays(7)
+                .format(DateTimeFormatter.BASIC_ISO_DATE);
+        Files.writeString(feed.resolve("calendar.txt"), "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+                + "ATB:DayType:0_0,1,1,1,1,1,0,0," + start_date + "," + end_date + "\n");
+        Files.writeString(feed.resolve("calendar_dates.txt"), "service_id,date,exception_type\n");
+        Files.writeString(feed.resolve("trips.txt"), "route_id,service_id,trip_id\n"
+                + "ATB:Line:" + line + ",ATB:DayType:0_0,ATB:ServiceJourney:" + line + "_100_0\n");
+        Files.writeString(feed.resolve("stops.txt"), "stop_id,stop_name,parent_station,platform_code\n"
+                + "NSR:Quay:71000,Prinsens gate,NSR:StopPlace:5000,1\n"
+                + "NSR:Quay:71001,Munkegata,NSR:StopPlace:5001,\n");
+        Files.writeString(feed.resolve("stop_times.txt"), "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                + "ATB:ServiceJourney:" + line + "_100_0,07:00:00,07:00:00,NSR:Quay:71000,1\n"
+                + "ATB:ServiceJourney:" + line + "_100_0,07:05:00,07:06:00,NSR:Quay:71001,2\n");
+        return feed;
+    }
+}
@@ -0,0 +1,98 @@
+import no.busstuc.GtfsCsvReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsCsvReaderTest {
+    @TempDir
+    Path dir;
+
+    private Path write(String content) throws IOException {
+        var file = dir.resolve("stops.txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    void projects_columns_in_requested_order() throws IOException {
+        var file = write("stop_id,stop_name,stop_lat,platform_code\nNSR:Quay:1,Munkegata,63.4,1\nNSR:Quay:2,Øya,63.5,\n");
+
+        try (var reader = GtfsCsvReader.open(file, "platform_code", "stop_id")) {
+            assertTrue(reader.next());
+            assertEquals("1", reader.getString(0));
+            assertEquals("NSR:Quay:1", reader.get(1).toString());
+            assertTrue(reader.next());
+            assertTrue(reader.isEmpty(0));
+            assertEquals("NSR:Quay:2", reader.getString(1));
+            assertFalse(reader.next());
+            assertEquals(2, reader.getRows());
+        }
+    }
+
+    @Test
+    void handles_quotes_bom_and_line_breaks() throws IOException {
+        var file = write("\uFEFFstop_id,stop_name\r\n1,\"Solsiden, Trondheim\"\r\n2,\"\"\"Torget\"\" nord\"\r\n\r\n3,\"Two\nlines\"");
+
+        try (var reader = GtfsCsvReader.open(file, "stop_id", "stop_name")) {
+            assertTrue(reader.next());
+            assertEquals(1, reader.getInt(0));
+            assertEquals("Solsiden, Trondheim", reader.getString(1));
+            assertTrue(reader.next());
+            assertEquals(2, reader.getInt(0));
+            assertEquals("\"Torget\" nord", reader.get(1).toString());
+            assertTrue(reader.next());
+            assertEquals(3, reader.getInt(0));
+            assertEquals("Two\nlines", reader.getString(1));
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void reads_stream_past_its_buffer() throws IOException {
+        var content = new StringBuilder("stop_id,stop_name\n");
+        for (int i = 0; i < 100_000; i++) {
+            content.append(i).append(",\"Stop, number ").append(i).append("\"\n");
+        }
+
+        try (var reader = GtfsCsvReader.open(new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8)), "stop_name", "stop_id")) {
+            for (int i = 0; i < 100_000; i++) {
+                assertTrue(reader.next());
+                assertEquals(i, reader.getInt(1));
+                assertEquals("Stop, number " + i, reader.getString(0));
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void get_int_range() throws IOException {
+        var text = "stop_sequence\n2147483647\n-2147483648\n2147483648\n-2147483649\n99999999999\n-\n007\n";
+
+        try (var reader = GtfsCsvReader.open(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), "stop_sequence")) {
+            assertTrue(reader.next());
+            assertEquals(Integer.MAX_VALUE, reader.getInt(0));
+            assertTrue(reader.next());
+            assertEquals(Integer.MIN_VALUE, reader.getInt(0));
+            for (int i = 0; i < 4; i++) {
+                assertTrue(reader.next());
+                assertThrows(NumberFormatException.class, () -> reader.getInt(0), reader.getString(0));
+            }
+            assertTrue(reader.next());
+            assertEquals(7, reader.getInt(0));
+        }
+    }
+
+    @Test
+    void missing_column() throws IOException {
+        var file = write("stop_id,stop_name\n1,Ila\n");
+
+        assertThrows(IllegalArgumentException.class, () -> GtfsCsvReader.open(file, "platform_code"));
+    }
+}
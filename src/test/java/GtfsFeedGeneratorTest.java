@@ -0,0 +1,59 @@
+import no.busstuc.ConverterConfig;
+import no.busstuc.GtfsConverter;
+import no.busstuc.GtfsFeedGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsFeedGeneratorTest {
+    private static final List<String> FILES = List.of("calendar.txt", "calendar_dates.txt", "stops.txt", "trips.txt", "stop_times.txt");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void same_seed_same_feed() throws IOException {
+        var generator = new GtfsFeedGenerator();
+        generator.setStop_times(10000);
+        generator.setSeed(3);
+        generator.write(dir.resolve("first"));
+        generator.write(dir.resolve("second"));
+        generator.setSeed(4);
+        generator.write(dir.resolve("other"));
+
+        for (String name : FILES) {
+            assertArrayEquals(Files.readAllBytes(dir.resolve("first").resolve(name)), Files.readAllBytes(dir.resolve("second").resolve(name)), name);
+        }
+        assertFalse(Files.readString(dir.resolve("first/stop_times.txt")).equals(Files.readString(dir.resolve("other/stop_times.txt"))));
+        try (var lines = Files.lines(dir.resolve("first/stop_times.txt"))) {
+            assertEquals(10000 + 1, lines.count());
+        }
+    }
+
+    @Test
+    void converts() throws IOException {
+        var generator = new GtfsFeedGenerator();
+        generator.setTrips(200);
+        generator.setStops_per_trip(12);
+        generator.setPattern_reuse(0.9);
+        generator.setException_density(0.1);
+        generator.write(dir.resolve("feed"));
+
+        var config = new ConverterConfig(dir.resolve("feed").toString(), Files.createDirectories(dir.resolve("out")).toString());
+        config.setUpdate_route_period(false);
+        var result = new GtfsConverter(config).convert();
+
+        var regpas = Files.readString(result.getOut_dir().toPath().resolve("regpas.pl"));
+        // one segment per pattern, as every trip of a pattern has the same stops and times
+        assertEquals(20, regpas.split("ntourstops\\(").length - 1);
+        try (var lines = Files.lines(result.getOut_dir().toPath().resolve("regdep.pl"))) {
+            assertEquals(200, lines.filter(line -> line.startsWith("departureday(")).count());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import no.busstuc.GtfsFeed;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsFeedTest {
+    private static final String STOP_TIMES = "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+            + "ATB:ServiceJourney:1_100_0,07:00:00,07:00:00,NSR:Quay:71000,1\n"
+            + "ATB:ServiceJourney:1_100_0,07:05:00,07:06:00,NSR:Quay:71001,2\n";
+    private static final String STOPS = "stop_id,stop_name\nNSR:Quay:71000,Øya\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reads_stored_and_compressed_entries() throws IOException {
+        var zip = dir.resolve("gtfs.zip");
+        try (var out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("gtfs/stops.txt"));
+            out.write(STOPS.getBytes(StandardCharsets.UTF_8));
+            var bytes = STOP_TIMES.getBytes(StandardCharsets.UTF_8);
+            var stored = new ZipEntry("gtfs/stop_times.txt");
+            var crc = new CRC32();
+            crc.update(bytes);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(bytes.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(bytes);
+        }
+
+        try (var feed = GtfsFeed.open(zip.toString())) {
+            assertTrue(feed.contains("stops.txt"));
+            assertFalse(feed.contains("trips.txt"));
+            assert_stop_times(feed);
+            try (var reader = feed.csv_reader("stops.txt", "stop_id", "stop_name")) {
+                assertTrue(reader.next());
+                assertEquals("NSR:Quay:71000", reader.getString(0));
+                assertEquals("Øya", reader.getString(1));
+                assertFalse(reader.next());
+            }
+        }
+    }
+
+    @Test
+    void reads_folder() throws IOException {
+        var folder = Files.createDirectories(dir.resolve("feed"));
+        Files.writeString(folder.resolve("stop_times.txt"), STOP_TIMES);
+
+        try (var feed = GtfsFeed.open(folder.toString())) {
+            assertTrue(feed.contains("stop_times.txt"));
+            assert_stop_times(feed);
+        }
+    }
+
+    private static void assert_stop_times(GtfsFeed feed) throws IOException {
+        try (var reader = feed.csv_reader("stop_times.txt", "stop_id", "stop_sequence")) {
+            assertTrue(reader.next());
+            assertEquals("NSR:Quay:71000", reader.getString(0));
+            assertTrue(reader.next());
+            assertEquals(2, reader.getInt(1));
+            assertFalse(reader.next());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+import no.busstuc.GtfsTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsTimeTest {
+    @Test
+    void minutes() {
+        assertEquals(0, GtfsTime.minutes("00:00:00"));
+        assertEquals(7 * 60 + 5, GtfsTime.minutes("07:05:30"));
+        assertEquals(7 * 60 + 5, GtfsTime.minutes("7:05:00"));
+        assertEquals(25 * 60 + 10, GtfsTime.minutes("25:10:00"));
+        assertThrows(NumberFormatException.class, () -> GtfsTime.minutes(""));
+        assertThrows(NumberFormatException.class, () -> GtfsTime.minutes("07:xx:00"));
+    }
+
+    @Test
+    void hhmm() {
+        assertEquals(705, GtfsTime.hhmm(7 * 60 + 5));
+        assertEquals(5, GtfsTime.hhmm(5));
+        assertEquals(2510, GtfsTime.hhmm(25 * 60 + 10));
+    }
+}